@@ -0,0 +1,71 @@
+package io.github.kayodesu.benchmark;
+
+import io.github.kayodesu.ai.AI;
+import io.github.kayodesu.ai.ElTetris;
+import io.github.kayodesu.ai.ExpectimaxAI;
+import io.github.kayodesu.ai.Lookahead;
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AI 选择一次落点的耗时。七种小方块轮流作为当前的小方块，面板不变。
+ *
+ * @author Yo Ka
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AIBenchmark {
+
+    @Param({"10x20", "20x40"})
+    public String size;
+
+    @Param({"EMPTY", "MID_GAME", "NEAR_TOPOUT"})
+    public BoardFixtures.Kind kind;
+
+    @Param({"eltetris", "lookahead", "expectimax"})
+    public String ai;
+
+    @Param({"1"})
+    public int threads;
+
+    private Board board;
+    private AI instance;
+    private int type;
+
+    @Setup
+    public void setUp() {
+        board = BoardFixtures.create(size, kind);
+        if ("lookahead".equals(ai)) {
+            instance = new Lookahead(board, () -> BlockType.valueOf((type + 1) % BlockType.count()).getBlock(0),
+                    ElTetris.defaultEvaluator(), Lookahead.DEFAULT_BEAM_WIDTH, threads);
+        } else if ("expectimax".equals(ai)) {
+            instance = new ExpectimaxAI(board, () -> BlockType.valueOf((type + 1) % BlockType.count()).getBlock(0),
+                    ElTetris.defaultEvaluator(), ExpectimaxAI.DEFAULT_BEAM_WIDTH, ExpectimaxAI.DEFAULT_MAX_DEPTH,
+                    null, threads);
+        } else {
+            instance = new ElTetris(board, threads);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        instance.stop();
+    }
+
+    @Benchmark
+    public int calBestColAndStat() {
+        type = (type + 1) % BlockType.count();
+        board.setDanglingBlock(GameEngine.BEGIN_X, GameEngine.BEGIN_Y, BlockType.valueOf(type).getBlock(0));
+        instance.calBestColAndStat();
+        return board.blockLeft;
+    }
+}
@@ -0,0 +1,138 @@
+package io.github.kayodesu.benchmark;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+import io.github.kayodesu.engine.Board;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 面板的热点：冲突检测、下落（逐行和由列高度直接算出）、贴上/还原、合并和消行。
+ * 合并会改变面板，所以合并的基准先从夹具复制面板，复制本身的开销见 {@link #copyFrom()}；
+ * 或者合并后用撤销栈还原（搜索逐层放下小方块时的做法）。
+ *
+ * @author Yo Ka
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBenchmark {
+
+    @Param({"10x20", "20x40", "32x64"})
+    public String size;
+
+    @Param({"EMPTY", "MID_GAME", "NEAR_TOPOUT"})
+    public BoardFixtures.Kind kind;
+
+    private Board fixture, lineClearFixture;
+    private Board board, lineClearBoard;
+
+    private final Block t = BlockType.T.getBlock(0);
+    private final Block i = BlockType.I.getBlock(0);
+    private int landingLeft, landingTop;
+
+    @Setup
+    public void setUp() {
+        fixture = BoardFixtures.create(size, kind);
+        lineClearFixture = BoardFixtures.createLineClear(size, kind);
+        board = new Board(fixture);
+        lineClearBoard = new Board(lineClearFixture);
+
+        // T 在中间一列的落点，用于贴上/还原
+        landingLeft = board.getColumnsCount() / 2 - 1;
+        board.setDanglingBlock(landingLeft, -Block.SIDE_LEN, t);
+        while (board.moveDown());
+        landingTop = board.blockTop;
+    }
+
+    /**
+     * 在落点所在的行上，对每一列做一次冲突检测
+     */
+    @Benchmark
+    public void testBoundAndConflict(Blackhole bh) {
+        for (int x = -t.getLeft(); x < board.getColumnsCount() - t.getRight(); x++)
+            bh.consume(board.testBoundAndConflict(x, landingTop, t));
+    }
+
+    /**
+     * 从顶部落到底部，每下落一行做一次冲突检测
+     */
+    @Benchmark
+    public int drop() {
+        board.setDanglingBlock(landingLeft, -Block.SIDE_LEN, t);
+        while (board.moveDown());
+        return board.blockTop;
+    }
+
+    /**
+     * 由各列的高度直接算出从顶部落下的位置
+     */
+    @Benchmark
+    public int dropRow() {
+        return board.dropRow(t, landingLeft);
+    }
+
+    @Benchmark
+    public int pasteUnPaste() {
+        board.setDanglingBlock(landingLeft, landingTop, t);
+        board.pasteDanglingBlock();
+        int holes = board.getHoles();
+        board.unPasteDanglingBlock();
+        return holes;
+    }
+
+    @Benchmark
+    public Board copyFrom() {
+        board.copyFrom(fixture);
+        return board;
+    }
+
+    /**
+     * 复制面板，然后落下并合并一个不消行的小方块
+     */
+    @Benchmark
+    public int merge() {
+        board.copyFrom(fixture);
+        board.setDanglingBlock(landingLeft, -Block.SIDE_LEN, t);
+        while (board.moveDown());
+        return board.merge();
+    }
+
+    /**
+     * 复制面板，然后在第0列落下竖着的I，消除底部4行
+     */
+    @Benchmark
+    public int mergeAndRemoveFullLines() {
+        board.copyFrom(lineClearFixture);
+        board.setDanglingBlock(-i.getLeft(), -Block.SIDE_LEN, i);
+        while (board.moveDown());
+        return board.merge();
+    }
+
+    /**
+     * 在预先算好的落点合并一个不消行的小方块，再撤销
+     */
+    @Benchmark
+    public int mergeUndo() {
+        board.setDanglingBlock(landingLeft, landingTop, t);
+        int lines = board.mergeUndoable();
+        board.undoMerge();
+        return lines;
+    }
+
+    /**
+     * 在第0列落下竖着的I，消除底部4行，再撤销
+     */
+    @Benchmark
+    public int mergeAndRemoveFullLinesUndo() {
+        lineClearBoard.setDanglingBlock(-i.getLeft(), lineClearBoard.dropRow(i, -i.getLeft()), i);
+        int lines = lineClearBoard.mergeUndoable();
+        lineClearBoard.undoMerge();
+        return lines;
+    }
+}
@@ -0,0 +1,78 @@
+package io.github.kayodesu.benchmark;
+
+import io.github.kayodesu.engine.Board;
+
+import java.util.Random;
+
+/**
+ * 基准测试用的面板：固定种子生成，每次运行都相同。
+ *
+ * @author Yo Ka
+ */
+public final class BoardFixtures {
+
+    public enum Kind {
+        EMPTY,       // 空面板
+        MID_GAME,    // 堆到一半高，每行有一两个洞
+        NEAR_TOPOUT, // 只剩顶部几行
+    }
+
+    private BoardFixtures() {
+    }
+
+    /**
+     * @param size 形如 "10x20"，列数x行数
+     */
+    static Board create(String size, Kind kind) {
+        int i = size.indexOf('x');
+        int columnsCount = Integer.parseInt(size.substring(0, i));
+        int rowsCount = Integer.parseInt(size.substring(i + 1));
+        Board board = new Board(columnsCount, rowsCount);
+
+        int stack;
+        switch (kind) {
+            case EMPTY:       stack = 0; break;
+            case MID_GAME:    stack = rowsCount / 2; break;
+            case NEAR_TOPOUT: stack = rowsCount - 6; break;
+            default: throw new IllegalArgumentException(kind.toString());
+        }
+
+        Random random = new Random(42);
+        for (int h = 0; h < stack; h++) {
+            int y = rowsCount - 1 - h;
+            // 顶部三行参差不齐，下面的行每行一两个洞，不会有满行
+            int holes = h >= stack - 3 ? columnsCount / 2 : 1 + random.nextInt(2);
+            long row = fullRow(columnsCount);
+            for (int n = 0; n < holes; n++)
+                row &= ~(1L << random.nextInt(columnsCount));
+            if (row == fullRow(columnsCount))
+                row &= ~1L;
+            for (int x = 0; x < columnsCount; x++) {
+                if ((row & (1L << x)) != 0)
+                    board.fill(x, y);
+            }
+        }
+        return board;
+    }
+
+    /**
+     * 在 create(size, kind) 的基础上清空第0列，并把底部4行的其余格子填满，
+     * 竖着的I落到第0列正好消除4行
+     */
+    static Board createLineClear(String size, Kind kind) {
+        Board from = create(size, kind);
+        Board board = new Board(from.getColumnsCount(), from.getRowsCount());
+        int rowsCount = board.getRowsCount();
+        for (int y = 0; y < rowsCount; y++) {
+            for (int x = 1; x < board.getColumnsCount(); x++) {
+                if (y >= rowsCount - 4 || from.isFilled(x, y))
+                    board.fill(x, y);
+            }
+        }
+        return board;
+    }
+
+    private static long fullRow(int columnsCount) {
+        return (1L << columnsCount) - 1;
+    }
+}
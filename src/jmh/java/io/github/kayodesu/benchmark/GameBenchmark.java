@@ -0,0 +1,67 @@
+package io.github.kayodesu.benchmark;
+
+import io.github.kayodesu.ai.AI;
+import io.github.kayodesu.ai.ElTetris;
+import io.github.kayodesu.ai.Lookahead;
+import io.github.kayodesu.engine.GameEngine;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 无界面的 AI 对局吞吐量：每个操作是一个小方块从出块、选落点、落下到固定（含消行和出下一个小方块），
+ * 结果即每秒的小方块数。一局结束后自动开始新的一局。
+ *
+ * @author Yo Ka
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class GameBenchmark {
+
+    @Param({"10x20", "20x40"})
+    public String size;
+
+    @Param({"eltetris", "lookahead"})
+    public String ai;
+
+    private GameEngine engine;
+    private AI instance;
+
+    @Setup
+    public void setUp() {
+        newGame();
+    }
+
+    @TearDown
+    public void tearDown() {
+        instance.stop();
+    }
+
+    private void newGame() {
+        if (instance != null)
+            instance.stop();
+
+        int i = size.indexOf('x');
+        engine = new GameEngine(Integer.parseInt(size.substring(0, i)), Integer.parseInt(size.substring(i + 1)));
+        if ("lookahead".equals(ai)) {
+            instance = new Lookahead(engine.getBoard(), engine::getNextBlock);
+        } else {
+            instance = new ElTetris(engine.getBoard());
+        }
+        engine.start();
+    }
+
+    @Benchmark
+    public int piece() {
+        if (engine.isGameOver())
+            newGame();
+
+        instance.calBestColAndStat();
+        engine.drop();
+        return engine.lock();
+    }
+}
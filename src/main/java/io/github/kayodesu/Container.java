@@ -1,37 +1,63 @@
 package io.github.kayodesu;
 
 import io.github.kayodesu.block.Block;
-import javafx.application.Platform;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameListener;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 
 /**
+ * 面板的界面，只负责绘制。
+ * 作为监听者挂在 GameEngine 上，游戏逻辑全部在 Board 中进行。
+ *
+ * 游戏线程只在回调和 draw() 中把要显示的状态（已固定的格子、颜色、danglingBlock）
+ * 复制到界面自己的快照里，并标记脏区；{@link RenderScheduler} 每帧最多调用一次
+ * {@link #paint()}，在 FX application thread 中只按快照重绘脏区，不读正在变化的 Board。
+ *
  * @author Yo Ka
  */
-public class Container extends Canvas {
+public class Container extends Canvas implements GameListener {
 
     private GraphicsContext gc;
 
-    // 画布中每个小方块的状态
-    public enum CellStat {
-        EMPTY,     // 空
-        MOVING,    // 正在移动的痕迹
-        SOLIDIFY   // 已经固定存在的小方块
-    }
+    // 小方块颜色编号（即 BlockType 的序号）对应的颜色
+    private static final Color[] COLORS = {
+            Color.BLUE, Color.DEEPPINK, Color.RED, Color.ORANGE,
+            Color.GREEN, Color.PURPLE, Color.DARKCYAN
+    };
 
     public int cellSideLen;
     public int gapBetweenCells;
 
+    // Cell只记录颜色用于绘制，格子是否有小方块由Board决定
     public static class Cell {
-        public CellStat stat = CellStat.EMPTY;
         public Color color = Color.BLACK;
     }
 
-    // 画布状态表示, 零点在左上角
+    private final Board board;
+
+    // 画布中每个小方块的颜色, 零点在左上角
     private Cell[][] cellMatrix;
     private int columnsCount, rowsCount;
 
+    /*
+     * 以下为显示用的快照，都由 lock 保护。
+     * dirtyRows 是每一行需要重绘的列的掩码。
+     */
+    private final Object lock = new Object();
+    private final int[] shownRows;   // 已固定的格子
+    private Block shownBlock;        // 要显示的 danglingBlock
+    private int shownLeft, shownTop;
+    private final int[] dirtyRows;
+    private boolean requested = false; // draw() 之后还没有绘制
+    private long requestsCount = 0, paintsCount = 0;
+
+    // 以下只在 FX application thread 中访问
+    private final int[] repaintRows;
+    private Block drawnBlock; // 画布上当前画着的 danglingBlock
+    private int drawnLeft, drawnTop;
+
     public int getColumnsCount() {
         return columnsCount;
     }
@@ -40,14 +66,18 @@ public class Container extends Canvas {
         return rowsCount;
     }
 
-    public Container(int width, int height, int cellSideLen, int gapBetweenCells, int columnsCount, int rowsCount) {
+    public Container(int width, int height, int cellSideLen, int gapBetweenCells, Board board) {
         super(width, height);
 
         this.cellSideLen = cellSideLen;
         this.gapBetweenCells = gapBetweenCells;
-        this.columnsCount = columnsCount;
-        this.rowsCount = rowsCount;
+        this.board = board;
+        this.columnsCount = board.getColumnsCount();
+        this.rowsCount = board.getRowsCount();
         cellMatrix = new Cell[columnsCount][rowsCount];
+        shownRows = new int[rowsCount];
+        dirtyRows = new int[rowsCount];
+        repaintRows = new int[rowsCount];
         gc = getGraphicsContext2D();
 
         for(int x = 0; x < columnsCount; x++)
@@ -55,337 +85,259 @@ public class Container extends Canvas {
                 cellMatrix[x][y] = new Cell();
     }
 
-    public Cell[][] getCellMatrix() {
-        return cellMatrix;
-    }
-
-    private boolean full = false;
-
-    private Block danglingBlock;
-    public int blockLeft, blockTop; // danglingBlock 的坐标
-
-    public ConflictType setDanglingBlock(int left, int top, Block block) {
-        ConflictType type = testBoundAndConflict(left, top, block);
-        if (type == ConflictType.NONE_CONFLICT) {
-            this.blockLeft = left;
-            this.blockTop = top;
-            danglingBlock = block;
-        }
-        return type;
-    }
-
-    public Block getDanglingBlock() {
-        return danglingBlock;
+    public Board getBoard() {
+        return board;
     }
 
-    public boolean isFull() {
-        return full;
+    private static Color colorOf(Block block) {
+        return COLORS[block.color % COLORS.length];
     }
 
-    public boolean moveLeft() {
-        assert danglingBlock != null;
-
-        ConflictType type = testBoundAndConflict(blockLeft - 1, blockTop, danglingBlock);
-        if (type == ConflictType.NONE_CONFLICT) {
-            blockLeft--;
-            draw();
-            return true;
-        }
-        return false;
-    }
-
-    public boolean moveRight() {
-        assert danglingBlock != null;
-
-        ConflictType type = testBoundAndConflict(blockLeft + 1, blockTop, danglingBlock);
-        if (type == ConflictType.NONE_CONFLICT) {
-            blockLeft++;
-            draw();
-            return true;
-        }
-        return false;
+    /**
+     * 给小方块第 fromRow 到 toRow（不含）行覆盖到的格子上色
+     */
+    private void paintBlock(Block block, int left, int top, int fromRow, int toRow) {
+        boolean[][] data = block.getData();
+        for (int x = 0; x < Block.SIDE_LEN; x++)
+            for (int y = fromRow; y < toRow; y++)
+                if (data[x][y] && top + y >= 0)
+                    cellMatrix[left + x][top + y].color = colorOf(block);
     }
 
-    public boolean transform() {
-        assert danglingBlock != null;
-
-        danglingBlock.switchToNextStat();
-        ConflictType type = testBoundAndConflict(blockLeft, blockTop, danglingBlock);
-        if (type == ConflictType.NONE_CONFLICT) {
-            draw();
-            return true;
+    /**
+     * 按照位棋盘消除的行，原地下移颜色
+     */
+    private void removeClearedColors(int[] clearedRows, int count) {
+        // 最下面的被消除的行之下的行不变
+        int k = 0;
+        int j = clearedRows[0];
+        for (int y = clearedRows[0]; y >= 0; y--) {
+            if (k < count && clearedRows[k] == y) {
+                k++;
+                continue;
+            }
+            if (j != y) {
+                for (int x = 0; x < columnsCount; x++)
+                    cellMatrix[x][j].color = cellMatrix[x][y].color;
+            }
+            j--;
         }
-        danglingBlock.switchToPrevStat();
-        return false;
     }
 
-    public boolean moveDown() {
-        assert danglingBlock != null;
-
-        ConflictType type = testBoundAndConflict(blockLeft, blockTop + 1, danglingBlock);
-        if (type == ConflictType.NONE_CONFLICT) {
-            blockTop++;
-            draw();
-            return true;
+    /**
+     * 从面板复制第 from 到 to（不含）行，并标记这些行需要整行重绘。
+     * 应在改变面板的线程中调用
+     */
+    public void invalidateRows(int from, int to) {
+        int all = board.getFullRow();
+        synchronized (lock) {
+            for (int y = Math.max(from, 0); y < Math.min(to, rowsCount); y++) {
+                shownRows[y] = board.getRow(y);
+                dirtyRows[y] = all;
+            }
         }
-        return false;
     }
 
-    public boolean tryMoveDown() {
-        assert danglingBlock != null;
-
-        ConflictType type = testBoundAndConflict(blockLeft, blockTop + 1, danglingBlock);
-        if (type == ConflictType.NONE_CONFLICT) {
-            blockTop++;
-            return true;
-        }
-        return false;
+    /**
+     * 从面板复制所有的行，并标记整个面板需要重绘
+     */
+    public void invalidate() {
+        invalidateRows(0, rowsCount);
     }
 
     /**
-     * 消除满行。
-     * 先将panel的所有未满行复制到一个临时的数组中，
-     * 在将此临时数组复制的panel中
-     * @return 移除的行数
+     * 将小方块覆盖的格子加入 rowMasks
      */
-    private int removeFullLines() {
-        int notFullLineCount = 0;
-
-        CellStat[][] tmp = new CellStat[columnsCount][rowsCount];
-        for (int x = 0; x < columnsCount; x++)
-            for (int y = 0; y < rowsCount; y++)
-                tmp[x][y] = CellStat.EMPTY;
-
-        int j = rowsCount - 1;
-
-        for (int y = rowsCount - 1; y >= 0; y--) {
-            for (int x = 0; x < columnsCount; x++) {
-                if (cellMatrix[x][y].stat == CellStat.EMPTY) {
-                    // 发现一未满行，将此行复制的tmp数组的对应位置
-                    for (int i = 0, t = 0; i < columnsCount; i++, t++) {
-                        tmp[i][j] = cellMatrix[t][y].stat;
-                    }
-                    j--;
-                    notFullLineCount++;
-                    break;
-                }
-            }
-        }
-
-        for (int x = 0; x < columnsCount; x++) {
-            for (int y = 0; y < rowsCount; y++) {
-                cellMatrix[x][y].stat = tmp[x][y];
-            }
+    private void addFootprint(int[] rowMasks, Block block, int left, int top) {
+        int[] masks = block.getRowMasks();
+        for (int i = 0; i < Block.SIDE_LEN; i++) {
+            int y = top + i;
+            if (masks[i] != 0 && y >= 0 && y < rowsCount)
+                rowMasks[y] |= left >= 0 ? masks[i] << left : masks[i] >>> -left;
         }
-
-        return rowsCount - notFullLineCount;
     }
 
-    public int merger() {
-        assert danglingBlock != null;
-        assert testBoundAndConflict(blockLeft, blockTop, danglingBlock) == ConflictType.NONE_CONFLICT;
-
-        for(int x = 0; x < Block.SIDE_LEN; x++) {
-            for(int y = 0; y < Block.SIDE_LEN; y++) {
-                if(danglingBlock.getData()[x][y]) {
-                    // 上方屏幕外图形的不合并
-                    if (blockTop + y < 0) {
-                        full = true;
-                    } else {
-                        cellMatrix[blockLeft + x][blockTop + y].stat = CellStat.SOLIDIFY;
-                        cellMatrix[blockLeft + x][blockTop + y].color = danglingBlock.color;
-                    }
-                }
-            }
-        }
-
-        int removedLinesCount = removeFullLines();
-        if (removedLinesCount > 0 && blockTop < 0) {
-            blockTop += removedLinesCount; // 下移 removedLinesCount 行
-            if (blockTop > 0) {
-                full = false;
-
-                for(int x = 0; x < Block.SIDE_LEN; x++)
-                    for(int y = 0; y < removedLinesCount; y++)
-                        if(danglingBlock.getData()[x][y]) {
-                            cellMatrix[blockLeft + x][blockTop + y].stat = CellStat.SOLIDIFY;
-                            cellMatrix[blockLeft + x][blockTop + y].color = danglingBlock.color;
-                        }
-            }
-        }
-
-        danglingBlock = null;
+    @Override
+    public void onBlockMoved(Board board) {
         draw();
-        return removedLinesCount;
     }
 
-    public void pasteDanglingBlock() {
-        assert danglingBlock != null;
-        assert testBoundAndConflict(blockLeft, blockTop, danglingBlock) == ConflictType.NONE_CONFLICT;
-
-        for(int x = 0; x < Block.SIDE_LEN; x++) {
-            for(int y = 0; y < Block.SIDE_LEN; y++) {
-                // 上方屏幕外图形的不合并
-                if(danglingBlock.getData()[x][y] && blockTop + y >= 0)
-                    cellMatrix[blockLeft + x][blockTop + y].stat = CellStat.MOVING;
+    @Override
+    public void onBlockLocked(Board board, Block block, int left, int top, int eliminatedLinesCount) {
+        synchronized (lock) {
+            paintBlock(block, left, top, 0, Block.SIDE_LEN);
+            if (eliminatedLinesCount > 0) {
+                removeClearedColors(board.getClearedRows(), eliminatedLinesCount);
+                // 与 Board.merge 一致：屏幕外的部分随消行下移后再合并
+                if (top < 0 && top + eliminatedLinesCount > 0)
+                    paintBlock(block, left, top + eliminatedLinesCount, 0, eliminatedLinesCount);
             }
         }
-    }
 
-    public void unPasteDanglingBlock() {
-        for(int x = 0; x < columnsCount; x++) {
-            for(int y = 0; y < rowsCount; y++) {
-                if(cellMatrix[x][y].stat == CellStat.MOVING)
-                    cellMatrix[x][y].stat = CellStat.EMPTY;
-            }
+        if (eliminatedLinesCount > 0) {
+            // 最下面的被消除的行及其上的行都下移了
+            invalidateRows(0, board.getClearedRows()[0] + 1);
+        } else {
+            // 小方块的最后位置不一定画过
+            invalidateRows(Math.max(top, 0), top + Block.SIDE_LEN);
         }
+        // 随后出下一个小方块时会重绘
     }
 
-    public enum ConflictType {
-        NONE_CONFLICT,  // 无冲突
-        CONFLICT,       // 冲突
-        OUT_OF_LEFT_BOUND,  // 左越界
-        OUT_OF_RIGHT_BOUND,
-        OUT_OF_BOTTOM_BOUND,
+    /**
+     * 记下面板当前的 danglingBlock，请求在下一帧重绘。
+     * 两帧之间的多次请求合并为一次绘制
+     */
+    public void draw() {
+        synchronized (lock) {
+            shownBlock = board.getDanglingBlock();
+            shownLeft = board.blockLeft;
+            shownTop = board.blockTop;
+            requested = true;
+            requestsCount++;
+        }
     }
 
     /**
-     * 检测是否冲突
-     * @param left 面板中的x坐标
-     * @param top  面板中的y坐标
-     * @param block 需要检测的小方块
-     * @return 是否冲突
+     * 有 draw() 请求时按快照重绘脏区：标记过的行、小方块移动前后覆盖的格子。
+     * 只能在 FX application thread 中调用，见 {@link RenderScheduler}
+     * @return 是否绘制了
      */
-    public ConflictType testBoundAndConflict(int left, int top, Block block) {
-        boolean[][] data = block.getData();
+    boolean paint() {
+        synchronized (lock) {
+            if (!requested)
+                return false;
+            requested = false;
+            paintsCount++;
 
-        for (int x = 0; x < Block.SIDE_LEN; x++) {
-            for (int y = 0; y < Block.SIDE_LEN; y++) {
-                if (data[x][y]) {
-                    int i = left + x;
-                    int j = top + y;
-
-                    if(i < 0)
-                        return ConflictType.OUT_OF_LEFT_BOUND;
-                    if(i >= columnsCount)
-                        return ConflictType.OUT_OF_RIGHT_BOUND;
-                    if(j >= rowsCount)
-                        return ConflictType.OUT_OF_BOTTOM_BOUND;
-
-                    // 小方块从顶部刚出来时是可以显示不全的，所以（j<0）不算越界
-                    if(j >= 0 && cellMatrix[i][j].stat != CellStat.EMPTY) {
-                        return ConflictType.CONFLICT;
-                    }
-                }
+            for (int y = 0; y < rowsCount; y++) {
+                repaintRows[y] = dirtyRows[y];
+                dirtyRows[y] = 0;
             }
-        }
 
-        return ConflictType.NONE_CONFLICT;
-    }
-
-    public void draw() {
-        // 将更新界面的工作交给 FX application thread 执行
-        Platform.runLater(() -> {
-            gc.setFill(Color.BLACK);
+            Block block = shownBlock;
+            int blockLeft = shownLeft, blockTop = shownTop;
+            if (drawnBlock != null)
+                addFootprint(repaintRows, drawnBlock, drawnLeft, drawnTop);
+            if (block != null)
+                addFootprint(repaintRows, block, blockLeft, blockTop);
+            drawnBlock = block;
+            drawnLeft = blockLeft;
+            drawnTop = blockTop;
 
-            for (int x = 0; x < columnsCount; x++) {
-                for (int y = 0; y < rowsCount; y++) {
+            for (int y = 0; y < rowsCount; y++) {
+                for (int m = repaintRows[y]; m != 0; m &= m - 1) {
+                    int x = Integer.numberOfTrailingZeros(m);
                     double x0 = x * cellSideLen + x * gapBetweenCells;
                     double y0 = y * cellSideLen + y * gapBetweenCells;
 
-                    if ((danglingBlock != null)
+                    if ((block != null)
                             && (blockLeft <= x) && (x < blockLeft + Block.SIDE_LEN)
                             && (blockTop <= y) && (y < blockTop + Block.SIDE_LEN)
-                            && (danglingBlock.getData()[x - blockLeft][y - blockTop])) {
-                        gc.setFill(danglingBlock.color);
+                            && (block.getData()[x - blockLeft][y - blockTop])) {
+                        gc.setFill(colorOf(block));
+                    } else if ((shownRows[y] & (1 << x)) != 0) {
+                        gc.setFill(cellMatrix[x][y].color);
                     } else {
-                        if (cellMatrix[x][y].stat == CellStat.EMPTY) {
-                            gc.clearRect(x0, y0, cellSideLen, cellSideLen);
-                            continue;
-                        } else if (cellMatrix[x][y].stat == CellStat.SOLIDIFY) {
-                            gc.setFill(cellMatrix[x][y].color);
-                        }
+                        gc.clearRect(x0, y0, cellSideLen, cellSideLen);
+                        continue;
                     }
 
                     gc.fillRect(x0, y0, cellSideLen, cellSideLen);
                 }
             }
-        });
+            return true;
+        }
+    }
+
+    /**
+     * draw() 请求的次数
+     */
+    public long getRequestsCount() {
+        synchronized (lock) {
+            return requestsCount;
+        }
+    }
+
+    /**
+     * 实际绘制的次数，与请求次数之差就是被合并的请求数
+     */
+    public long getPaintsCount() {
+        synchronized (lock) {
+            return paintsCount;
+        }
     }
 
     /**
      * 设置面板显示"over"
      */
     public void overPattern() {
-        for (int y = rowsCount - 1; y >= 0; y--) {
-            for (int x = 0; x < columnsCount; x++) {
-                cellMatrix[x][y].stat = CellStat.EMPTY;
-            }
-        }
+        board.clear();
 
         // "O"
-        cellMatrix[1][3].stat = CellStat.SOLIDIFY;
-        cellMatrix[1][4].stat = CellStat.SOLIDIFY;
-        cellMatrix[1][5].stat = CellStat.SOLIDIFY;
-        cellMatrix[1][6].stat = CellStat.SOLIDIFY;
-        cellMatrix[1][7].stat = CellStat.SOLIDIFY;
+        board.fill(1, 3);
+        board.fill(1, 4);
+        board.fill(1, 5);
+        board.fill(1, 6);
+        board.fill(1, 7);
 
-        cellMatrix[2][3].stat = CellStat.SOLIDIFY;
-        cellMatrix[2][7].stat = CellStat.SOLIDIFY;
+        board.fill(2, 3);
+        board.fill(2, 7);
 
-        cellMatrix[3][3].stat = CellStat.SOLIDIFY;
-        cellMatrix[3][4].stat = CellStat.SOLIDIFY;
-        cellMatrix[3][5].stat = CellStat.SOLIDIFY;
-        cellMatrix[3][6].stat = CellStat.SOLIDIFY;
-        cellMatrix[3][7].stat = CellStat.SOLIDIFY;
+        board.fill(3, 3);
+        board.fill(3, 4);
+        board.fill(3, 5);
+        board.fill(3, 6);
+        board.fill(3, 7);
 
         // "V"
-        cellMatrix[5][3].stat = CellStat.SOLIDIFY;
-        cellMatrix[5][4].stat = CellStat.SOLIDIFY;
-        cellMatrix[5][5].stat = CellStat.SOLIDIFY;
-        cellMatrix[5][6].stat = CellStat.SOLIDIFY;
+        board.fill(5, 3);
+        board.fill(5, 4);
+        board.fill(5, 5);
+        board.fill(5, 6);
 
-        cellMatrix[6][7].stat = CellStat.SOLIDIFY;
+        board.fill(6, 7);
 
-        cellMatrix[7][3].stat = CellStat.SOLIDIFY;
-        cellMatrix[7][4].stat = CellStat.SOLIDIFY;
-        cellMatrix[7][5].stat = CellStat.SOLIDIFY;
-        cellMatrix[7][6].stat = CellStat.SOLIDIFY;
+        board.fill(7, 3);
+        board.fill(7, 4);
+        board.fill(7, 5);
+        board.fill(7, 6);
 
         // "E"
-        cellMatrix[1][9].stat = CellStat.SOLIDIFY;
-        cellMatrix[1][10].stat = CellStat.SOLIDIFY;
-        cellMatrix[1][11].stat = CellStat.SOLIDIFY;
-        cellMatrix[1][12].stat = CellStat.SOLIDIFY;
-        cellMatrix[1][13].stat = CellStat.SOLIDIFY;
+        board.fill(1, 9);
+        board.fill(1, 10);
+        board.fill(1, 11);
+        board.fill(1, 12);
+        board.fill(1, 13);
 
-        cellMatrix[2][9].stat = CellStat.SOLIDIFY;
-        cellMatrix[3][9].stat = CellStat.SOLIDIFY;
+        board.fill(2, 9);
+        board.fill(3, 9);
 
-        cellMatrix[2][11].stat = CellStat.SOLIDIFY;
-        cellMatrix[3][11].stat = CellStat.SOLIDIFY;
+        board.fill(2, 11);
+        board.fill(3, 11);
 
-        cellMatrix[2][13].stat = CellStat.SOLIDIFY;
-        cellMatrix[3][13].stat = CellStat.SOLIDIFY;
+        board.fill(2, 13);
+        board.fill(3, 13);
 
         // "R"
-        cellMatrix[5][9].stat = CellStat.SOLIDIFY;
-        cellMatrix[5][10].stat = CellStat.SOLIDIFY;
-        cellMatrix[5][11].stat = CellStat.SOLIDIFY;
-        cellMatrix[5][12].stat = CellStat.SOLIDIFY;
-        cellMatrix[5][13].stat = CellStat.SOLIDIFY;
+        board.fill(5, 9);
+        board.fill(5, 10);
+        board.fill(5, 11);
+        board.fill(5, 12);
+        board.fill(5, 13);
 
-        cellMatrix[6][9].stat = CellStat.SOLIDIFY;
-        cellMatrix[7][9].stat = CellStat.SOLIDIFY;
+        board.fill(6, 9);
+        board.fill(7, 9);
 
-        cellMatrix[7][10].stat = CellStat.SOLIDIFY;
-        cellMatrix[7][11].stat = CellStat.SOLIDIFY;
+        board.fill(7, 10);
+        board.fill(7, 11);
 
-        cellMatrix[6][11].stat = CellStat.SOLIDIFY;
+        board.fill(6, 11);
 
-        cellMatrix[6][12].stat = CellStat.SOLIDIFY;
-        cellMatrix[7][13].stat = CellStat.SOLIDIFY;
+        board.fill(6, 12);
+        board.fill(7, 13);
 
+        invalidate();
         draw();
     }
 
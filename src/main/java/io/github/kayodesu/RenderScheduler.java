@@ -0,0 +1,91 @@
+package io.github.kayodesu;
+
+import io.github.kayodesu.metrics.GameMetrics;
+import javafx.animation.AnimationTimer;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按帧绘制：由 JavaFX 的脉冲（通常60Hz）驱动，每帧让每个有 draw() 请求的 {@link Container} 重绘一次。
+ * 游戏逻辑比帧率快得多时，两帧之间的多次请求合并为一次绘制，FX 事件队列不会被重绘任务塞满。
+ *
+ * @author Yo Ka
+ */
+public class RenderScheduler extends AnimationTimer {
+
+    private static final long FRAME_NANOS = 1_000_000_000L / 60;
+
+    private final CopyOnWriteArrayList<Container> containers = new CopyOnWriteArrayList<>();
+
+    // 以下只在 FX application thread 中写
+    private volatile long framesCount = 0;        // 至少重绘了一个 Container 的帧数
+    private volatile long droppedFramesCount = 0; // 两次脉冲间隔超过一帧时错过的帧数
+    private long lastPulse = -1;
+
+    // 记录帧间隔和输入到画面的延迟，为null时不记录
+    private volatile GameMetrics metrics;
+
+    public void add(Container container) {
+        containers.add(container);
+    }
+
+    public void remove(Container container) {
+        containers.remove(container);
+    }
+
+    public void setMetrics(GameMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handle(long now) {
+        long frameNanos = lastPulse >= 0 ? now - lastPulse : -1;
+        if (lastPulse >= 0) {
+            // 间隔超过1.5帧视为掉帧
+            long missed = (now - lastPulse + FRAME_NANOS / 2) / FRAME_NANOS - 1;
+            if (missed > 0)
+                droppedFramesCount += missed;
+        }
+        lastPulse = now;
+
+        boolean painted = false;
+        for (Container container : containers)
+            painted |= container.paint();
+        if (painted)
+            framesCount++;
+
+        GameMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.recordFrame(frameNanos, painted);
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        lastPulse = -1;
+    }
+
+    public long getFramesCount() {
+        return framesCount;
+    }
+
+    public long getDroppedFramesCount() {
+        return droppedFramesCount;
+    }
+
+    /**
+     * 被合并（没有单独绘制）的 draw() 请求数
+     */
+    public long getCoalescedRequestsCount() {
+        long coalesced = 0;
+        for (Container container : containers)
+            coalesced += container.getRequestsCount() - container.getPaintsCount();
+        return coalesced;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("frames: %d, dropped frames: %d, coalesced draws: %d",
+                getFramesCount(), getDroppedFramesCount(), getCoalescedRequestsCount());
+    }
+}
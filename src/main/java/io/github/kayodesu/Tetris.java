@@ -1,8 +1,23 @@
 package io.github.kayodesu;
 
 import io.github.kayodesu.ai.AI;
+import io.github.kayodesu.ai.AnytimeAI;
 import io.github.kayodesu.ai.ElTetris;
+import io.github.kayodesu.ai.Evaluator;
+import io.github.kayodesu.ai.ExpectimaxAI;
+import io.github.kayodesu.ai.Lookahead;
+import io.github.kayodesu.ai.PipelinedAI;
+import io.github.kayodesu.ai.TranspositionTable;
 import io.github.kayodesu.block.Block;
+import io.github.kayodesu.engine.Action;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameEngine;
+import io.github.kayodesu.engine.GameListener;
+import io.github.kayodesu.engine.GameLoop;
+import io.github.kayodesu.replay.Replay;
+import io.github.kayodesu.replay.ReplayRecorder;
+import io.github.kayodesu.replay.Replayer;
+import io.github.kayodesu.metrics.GameMetrics;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.geometry.Insets;
@@ -22,224 +37,96 @@ import javafx.scene.text.Text;
 import javafx.stage.Screen;
 import javafx.stage.Stage;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.concurrent.LinkedBlockingQueue;
-
-import static io.github.kayodesu.Tetris.Action.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 /**
  * @author Yo Ka
  */
 public class Tetris extends Application {
 
-    private volatile boolean isGameOver = false; // 一局游戏结束
-    private volatile boolean isInPause = false; // 游戏是否在暂停中
     private boolean isMute = false;  // 是否静音
 //    private MediaPlayer player; // 用来播放背景音乐
 
+    private GameEngine engine;
     private Container gameContainer;
     private Container nextBlockContainer;
-    private boolean aiPlaying = false;
+    private final RenderScheduler renderScheduler = new RenderScheduler();
     private AI ai;
 
     private int currScore = 0;
     private int currLevel = 1;
 
-    // 控制小方块运动的所有动作
-    public enum Action {
-        LEFT, RIGHT, DOWN, TRANSFORM, FAST_DOWN
-    }
-
-    // LinkedBlockingQueue是线程安全的
-    private LinkedBlockingQueue<Action> actionQueue = new LinkedBlockingQueue<>(1024);
-
-    /*
-     * 自动添加向下运动事件的线程
-     * 每间隔一定的时间，自动向消息队列中添加一个向下运动的事件，来实现小方块自动向下运动
-     */
-    Thread autoDownThread = new Thread(() -> {
-        /*
-         * 小方块下落的时间间隔
-         * 数组下标表示当前等级，数组值表示此等级下下落的时间间隔（毫秒）
-         * 最高10级（1-10）
-         */
-        int[] downRate = new int[11];
-        for(int i = 1; i < 11; i++) {
-            downRate[i] = 1000 - (i-1) * 100;
-        }
-
-        while (!isGameOver) {
-            try {
-                if (!isInPause && !aiPlaying) {
-                    actionQueue.put(Action.DOWN);
-                }
-
-                if (currLevel >= 1 && currLevel <= 10) {
-                    Thread.sleep(downRate[currLevel]);
-                } else {
-                    throw new NeverReachHereError("currLevel = " + currLevel);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+    // 游戏循环和产生重力的定时器
+    private GameLoop loop;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "gravity");
+        t.setDaemon(true);
+        return t;
     });
 
-    private static final int FAST_DOWN_CELL_COUNT = 3;
+    // 录像和回放，见 init()
+    private ReplayRecorder recorder;
+    private Replayer replayer;
+    private Thread replayThread;
 
-    /*
-     * 工作线程
-     * 从消息队列中取消息，然后处理消息。
+    /**
+     * 把引擎的计分、预览和结束事件反映到界面上
      */
-    Thread workThread = new Thread(new Runnable() {
-        private static final int BEGIN_X = 3;  // 默认小方块从第3列出来
-        private static final int BEGIN_Y = -Block.SIDE_LEN;
-
-        private Block nextBlock;
-        public int[] clearedRowsRecord = new int[5];
-
-        /**
-         * 触底后的处理
-         */
-        private void touchBottom() {
-            int eliminatedLinesCount = gameContainer.merger();
-            if(eliminatedLinesCount > 0) {
-                System.out.println("eliminated " + eliminatedLinesCount + " row(s)");
-                clearedRowsRecord[eliminatedLinesCount]++;
-
-                if (eliminatedLinesCount == 1)
-                    currScore += 10;   //  一次消除一层： 获得10积分
-                else if (eliminatedLinesCount == 2)
-                    currScore += 30;   //  一次消除二层： 获得30积分
-                else if (eliminatedLinesCount == 3)
-                    currScore += 60;   //  一次消除三层： 获得60积分
-                else if (eliminatedLinesCount == 4)
-                    currScore += 100;  //  一次消除四层： 获得100积分
-                else
-                    throw new NeverReachHereError("error. Eliminated " + eliminatedLinesCount + " row(s)");
-
-//                if(currScore > heightestScore) {
-//                    heightestScore = currScore;
-//                    Editor editor = sp.edit();
-//                    editor.putInt("HeightestScore", heightestScore);
-//                    editor.commit();
-//                }
-
-                // 根据当前得分确定等级
-                if(currScore < 1000)
-                    currLevel = 1;
-                else if(currScore < 3000)
-                    currLevel = 2;
-                else if(currScore < 6000)
-                    currLevel = 3;
-                else if(currScore < 10000)
-                    currLevel = 4;
-                else if(currScore < 15000)
-                    currLevel = 5;
-                else if(currScore < 21000)
-                    currLevel = 6;
-                else if(currScore < 28000)
-                    currLevel = 7;
-                else if(currScore < 36000)
-                    currLevel = 8;
-                else if(currScore < 45000)
-                    currLevel = 9;
-                else currLevel = 10;
-
-                // 将更新界面的工作交给 FX application thread 执行
-                Platform.runLater(() -> {
-                    scoreLabel.setText(String.valueOf(currScore));
-                    levelLabel.setText(String.valueOf(currLevel));
-                    speedLabel.setText("unknown"); // todo
-                    String s = String.format("Cleared Rows:\n1: %d\n2: %d\n3: %d\n4: %d\nTotal: %d",
-                            clearedRowsRecord[1],
-                            clearedRowsRecord[2],
-                            clearedRowsRecord[3],
-                            clearedRowsRecord[4],
-                            Arrays.stream(clearedRowsRecord).sum());
-                    clearedRowsText.setText(s);
-                });
-            }
-
-            gameContainer.setDanglingBlock(BEGIN_X, BEGIN_Y, nextBlock);
-            nextBlock = Block.getRandomBlock();
+    private class InfoPanelUpdater implements GameListener {
+        // 界面上的速度每秒最多更新4次
+        private static final long SPEED_UPDATE_INTERVAL = 1_000_000_000L / 4;
+        private long lastSpeedUpdate = 0;
 
-            nextBlockContainer.setDanglingBlock(0, 0, nextBlock);
+        @Override
+        public void onNextBlock(Block nextBlock) {
+            nextBlockContainer.getBoard().setDanglingBlock(0, 0, nextBlock);
             nextBlockContainer.draw();
-//            nextBlockPanel.setBlockStat(0, 0, 4, 4, nextBlock.getData());
-//            nextBlockPanel.drawPanel();
-
-            actionQueue.clear();
-            if (gameContainer.isFull())
-                gameOver();
         }
 
         @Override
-        public void run() {
-            gameContainer.setDanglingBlock(BEGIN_X, BEGIN_Y, Block.getRandomBlock());
+        public void onBlockLocked(Board board, Block block, int left, int top, int eliminatedLinesCount) {
+            long now = System.nanoTime();
+            if (now - lastSpeedUpdate >= SPEED_UPDATE_INTERVAL) {
+                lastSpeedUpdate = now;
+                GameMetrics metrics = loop.getMetrics();
+                String s = String.format("%.1f pieces/s\n%.1f lines/min",
+                        metrics.getPiecesPerSecond(), metrics.getLinesPerMinute());
+                Platform.runLater(() -> speedLabel.setText(s));
+            }
+        }
 
-            nextBlock = Block.getRandomBlock();
-            nextBlockContainer.setDanglingBlock(0, 0, nextBlock);
-            nextBlockContainer.draw();
+        @Override
+        public void onScoreChanged(int score, int level, int[] clearedRowsRecord) {
+            currScore = score;
+            currLevel = level;
+
+            String s = String.format("Cleared Rows:\n1: %d\n2: %d\n3: %d\n4: %d\nTotal: %d",
+                    clearedRowsRecord[1],
+                    clearedRowsRecord[2],
+                    clearedRowsRecord[3],
+                    clearedRowsRecord[4],
+                    Arrays.stream(clearedRowsRecord).sum());
+
+            // 将更新界面的工作交给 FX application thread 执行
+            Platform.runLater(() -> {
+                scoreLabel.setText(String.valueOf(score));
+                levelLabel.setText(String.valueOf(level));
+                clearedRowsText.setText(s);
+            });
+        }
 
-            while (!isGameOver) {
-                try {
-                    if (aiPlaying) {
-                        ai.calBestColAndStat();
-                        while (gameContainer.moveDown()) {
-                            Thread.sleep(10);
-                        }
-                        touchBottom();
-                    } else {
-//                    nextBlockPanel.setBlockStat(0, 0, 4, 4, nextBlock.getData());  todo
-//                    nextBlockPanel.drawPanel();
-
-                        Action action = null;
-
-                        while (action == null && !aiPlaying) {
-                            if (isGameOver) {
-                                return;
-                            }
-
-                            // 循环取消息直到取出消息为止 注意，取消息不能用阻塞函数actionQueue.take()
-                            // 因为往队列里面放消息也需要锁，如果取不出消息时阻塞将导致无法添加消息
-                            action = actionQueue.poll();
-
-                            // 下面的小睡是必须的，防止此线程过快的取消息队列。
-                            Thread.sleep(1);
-                        }
-
-                        if (aiPlaying)
-                            continue;
-
-                        if (action == LEFT) {
-                            gameContainer.moveLeft();
-                        } else if (action == RIGHT) {
-                            gameContainer.moveRight();
-                        } else if (action == TRANSFORM) {
-                            gameContainer.transform();
-                        } else if (action == DOWN) {
-                            if (!gameContainer.moveDown()) {
-                                touchBottom();
-                            }
-                        } else if (action == FAST_DOWN) { // 按了向下键之后，快速的下移 FAST_DOWN_CELL_COUNT 格
-                            for (int i = 0; i < FAST_DOWN_CELL_COUNT; i++) {
-                                if (!gameContainer.moveDown()) {
-                                    touchBottom();
-                                    break; // 当前小方块已经固定在底部了
-                                }
-                                Thread.sleep(10);
-                            }
-                        } else {
-                            throw new NeverReachHereError();
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+        @Override
+        public void onGameOver() {
+            gameOver();
         }
-    });
+    }
 
     private static final String TITLE = "Tetris AI";
 
@@ -285,12 +172,85 @@ public class Tetris extends Application {
         int exactGameWidth = cellSideLen*COL + g*(COL-1);;
         exactGameHeight = cellSideLen*ROW + g*(ROW-1);
 
-        gameContainer = new Container(exactGameWidth, exactGameHeight, cellSideLen, g, COL, ROW);
+        // -Dreplay=file 时回放录像，-Dreplay.speed 为倍速（默认1，0为全速）；
+        // 否则 -Dreplay.record=file 时把这一局录下来
+        String replayFile = System.getProperty("replay");
+        if (replayFile != null) {
+            Replay replay = Replay.read(Paths.get(replayFile));
+            if (replay.columnsCount != COL || replay.rowsCount != ROW)
+                throw new IllegalArgumentException("replay board is " + replay.columnsCount + "x" + replay.rowsCount);
+            replayer = new Replayer(replay);
+            engine = replayer.createEngine();
+        } else {
+            long seed = System.nanoTime();
+            engine = new GameEngine(COL, ROW, seed);
+            String recordFile = System.getProperty("replay.record");
+            if (recordFile != null) {
+                recorder = new ReplayRecorder(Paths.get(recordFile), COL, ROW, seed);
+                engine.addListener(recorder);
+            }
+        }
+        gameContainer = new Container(exactGameWidth, exactGameHeight, cellSideLen, g, engine.getBoard());
 
         int len = cellSideLen*Block.SIDE_LEN + g*(Block.SIDE_LEN-1);
-        nextBlockContainer = new Container(len, len, cellSideLen, g, Block.SIDE_LEN, Block.SIDE_LEN);
-
-        ai = new ElTetris(gameContainer);
+        nextBlockContainer = new Container(len, len, cellSideLen, g, new Board(Block.SIDE_LEN, Block.SIDE_LEN));
+
+        engine.addListener(gameContainer);
+        engine.addListener(new InfoPanelUpdater());
+
+        // AI 评估落点使用的线程数，可用 -Dai.threads=n 指定
+        int aiThreads = Integer.getInteger("ai.threads", 1);
+        // 缓存落点得分的置换表的条目数，可用 -Dai.cache=n 指定，0表示不缓存
+        int aiCache = Integer.getInteger("ai.cache", 1 << 16);
+        TranspositionTable tt = aiCache > 0
+                ? new TranspositionTable(aiCache, TranspositionTable.Eviction.REPLACE_BY_DEPTH) : null;
+        // 可用 -Dai.weights=file 读取调优得到的权重（见 Tuner），默认使用 El-Tetris 的权重
+        Evaluator evaluator = ElTetris.defaultEvaluator();
+        String weights = System.getProperty("ai.weights");
+        if (weights != null) {
+            try {
+                evaluator = Evaluator.load(Paths.get(weights));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        // -Dai=lookahead 时利用下一个小方块做两层搜索；
+        // -Dai=anytime 时在重力间隔的时间内迭代加深，最多 -Dai.depth 层；
+        // -Dai=expectimax 时同样迭代加深，对未知的小方块取期望并剪枝，用 -Dai.threads 个线程
+        String aiName = System.getProperty("ai", "eltetris");
+        int aiDepth = Integer.getInteger("ai.depth", AnytimeAI.DEFAULT_MAX_DEPTH);
+        Evaluator e = evaluator;
+        BiFunction<Board, Supplier<Block>, AI> factory = (board, nextBlock) -> {
+            if ("anytime".equals(aiName)) {
+                AnytimeAI anytime = new AnytimeAI(board, nextBlock, e.copy(), AnytimeAI.DEFAULT_BEAM_WIDTH, aiDepth);
+                anytime.setTranspositionTable(tt);
+                return anytime;
+            }
+            if ("expectimax".equals(aiName)) {
+                ExpectimaxAI expectimax = new ExpectimaxAI(board, nextBlock, e.copy(),
+                        ExpectimaxAI.DEFAULT_BEAM_WIDTH, aiDepth, null, aiThreads);
+                expectimax.setTranspositionTable(tt);
+                return expectimax;
+            }
+            if ("lookahead".equals(aiName)) {
+                Lookahead l = new Lookahead(board, nextBlock, e.copy(), Lookahead.DEFAULT_BEAM_WIDTH, aiThreads);
+                l.setTranspositionTable(tt);
+                return l;
+            }
+            ElTetris elTetris = new ElTetris(board, e.copy(), aiThreads);
+            elTetris.setTranspositionTable(tt);
+            return elTetris;
+        };
+        // -Dai.pipeline=true 时在当前小方块下落的同时为下一个小方块计算落点
+        if (Boolean.getBoolean("ai.pipeline"))
+            ai = new PipelinedAI(engine.getBoard(), engine::getNextBlock, factory);
+        else
+            ai = factory.apply(engine.getBoard(), engine::getNextBlock);
+
+        loop = new GameLoop(engine, ai, scheduler, r -> new Thread(r, "game loop"));
+        // 可以用 jconsole 等查看
+        loop.getMetrics().register("tetris");
+        renderScheduler.setMetrics(loop.getMetrics());
     }
 
     private Text scoreLabel;
@@ -336,7 +296,7 @@ public class Tetris extends Application {
         infoPanel.getChildren().add(new Text()); // empty text to separate
 
         infoPanel.getChildren().add(new Label("Speed"));
-        speedLabel = new Text("unknown");  // todo
+        speedLabel = new Text("-");
         speedLabel.setStyle("-fx-font-weight: bold");
         infoPanel.getChildren().add(speedLabel);
 
@@ -345,11 +305,11 @@ public class Tetris extends Application {
         Button pauseBtn = new Button(PAUSE);
         pauseBtn.setOnMouseClicked(mouseEvent -> {
             if (mouseEvent.getButton() == MouseButton.PRIMARY) { // 鼠标左键
-                if (isInPause) {
-                    isInPause = false;
+                if (loop.isPaused()) {
+                    loop.setPaused(false);
                     pauseBtn.setText(PAUSE);
                 } else {
-                    isInPause = true;
+                    loop.setPaused(true);
                     pauseBtn.setText(START);
                 }
             }
@@ -362,12 +322,12 @@ public class Tetris extends Application {
         Button aiBtn = new Button(AI_PLAYS);
         aiBtn.setOnMouseClicked(mouseEvent -> {
             if (mouseEvent.getButton() == MouseButton.PRIMARY) { // 鼠标左键
-                if (aiPlaying) {
-                    aiPlaying = false;
+                if (loop.isAiPlaying()) {
+                    loop.setAiPlaying(false);
                     aiBtn.setText(AI_PLAYS);
                     pauseBtn.setDisable(false);
                 } else {
-                    aiPlaying = true;
+                    loop.setAiPlaying(true);
                     aiBtn.setText(I_PLAY);
                     pauseBtn.setDisable(true);
                 }
@@ -403,33 +363,42 @@ public class Tetris extends Application {
         hBox.getChildren().add(infoPanel);
 
         primaryStage.addEventHandler(KeyEvent.KEY_PRESSED, keyEvent -> {
-            try {
-                if (keyEvent.getCode() == KeyCode.LEFT) {
-                    actionQueue.put(LEFT);
-                } else if (keyEvent.getCode() == KeyCode.RIGHT) {
-                    actionQueue.put(Action.RIGHT);
-                } else if (keyEvent.getCode() == KeyCode.UP) {
-                    actionQueue.put(Action.TRANSFORM);
-                } else if (keyEvent.getCode() == KeyCode.DOWN) {
-                    actionQueue.put(Action.FAST_DOWN);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            if (keyEvent.getCode() == KeyCode.LEFT) {
+                loop.post(Action.LEFT);
+            } else if (keyEvent.getCode() == KeyCode.RIGHT) {
+                loop.post(Action.RIGHT);
+            } else if (keyEvent.getCode() == KeyCode.UP) {
+                loop.post(Action.TRANSFORM);
+            } else if (keyEvent.getCode() == KeyCode.DOWN) {
+                loop.post(Action.FAST_DOWN);
             }
         });
 
         primaryStage.setScene(new Scene(hBox, -1, exactGameHeight));
         primaryStage.show();
 
+        renderScheduler.add(gameContainer);
+        renderScheduler.add(nextBlockContainer);
+        renderScheduler.start();
         gameContainer.draw();
 
-        autoDownThread.start();
-        workThread.start();
+        if (replayer != null) {
+            double speed = Double.parseDouble(System.getProperty("replay.speed", "1"));
+            replayThread = new Thread(() -> {
+                try {
+                    replayer.run(engine, speed);
+                } catch (InterruptedException e) {
+                    // 窗口关闭
+                }
+            }, "replay");
+            replayThread.setDaemon(true);
+            replayThread.start();
+        } else {
+            loop.start();
+        }
     }
 
     private void gameOver() {
-        isGameOver = true;
-        isInPause = true;
 //        player.pause();
 //
 //        Message msg = new Message();
@@ -438,34 +407,31 @@ public class Tetris extends Application {
 //
         new Thread(() -> {
             try {
-                // 等待各线程自动结束
-                if (workThread != null) {
-                    workThread.join();
-                }
-
-                if (autoDownThread != null) {
-                    autoDownThread.join();
-                }
+                // 等待游戏循环结束
+                loop.stop();
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
 
-            actionQueue.clear();
-
             gameContainer.overPattern();
 
 //                nextBlockPanel.resetPanel();
 //                nextBlockPanel.drawPanel();
         }).start();
-
-        System.out.println("Game Over");
     }
 
     @Override
     public void stop() throws Exception {
         super.stop();
-        isGameOver = true;
-        isInPause = true;
+        renderScheduler.stop();
+        loop.stop();
+        ai.stop(); // 游戏循环结束后才关闭 AI 的线程池，搜索到一半的决策不会被拒绝
+        scheduler.shutdownNow();
+        if (replayThread != null)
+            replayThread.interrupt();
+        if (recorder != null)
+            recorder.close(); // 游戏还没结束时，录下到目前为止的部分
+        loop.getMetrics().unregister();
     }
 
     public static void main(String[] args) {
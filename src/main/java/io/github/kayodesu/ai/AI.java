@@ -8,5 +8,29 @@ public interface AI {
 //    }
 
     void calBestColAndStat();
+
+    /**
+     * 在截止时间之前选出落点。默认忽略截止时间，能随时给出结果的 AI（如 {@link AnytimeAI}）
+     * 到时返回目前找到的最好的落点
+     * @param deadline System.nanoTime() 的截止时间
+     */
+    default void calBestColAndStat(long deadline) {
+        calBestColAndStat();
+    }
+
+    /**
+     * calBestColAndStat(long) 是否遵守截止时间。默认不遵守
+     */
+    default boolean usesDeadline() {
+        return false;
+    }
+
+    /**
+     * 上一次 calBestColAndStat() 评估的候选落点数（置换表命中的不算），用于统计
+     */
+    default int getCandidatesCount() {
+        return 0;
+    }
+
     void stop();
 }
@@ -0,0 +1,283 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+import io.github.kayodesu.engine.Board;
+
+import java.util.function.Supplier;
+
+/**
+ * 随时可以给出结果的 AI：迭代加深，先搜索一层，再两层，再更多层，
+ * 到截止时间时返回已经完整搜索完的最深一层的结果。
+ *
+ * 第一层是当前的小方块，第二层是预览的下一个小方块，再往后的小方块未知，
+ * 取7种小方块的最好得分的平均值。每层只展开评估得分最高的 beamWidth 个落点，
+ * 叶子的得分是最后一个小方块的落点的评估得分（与 {@link Lookahead} 相同）。
+ *
+ * 搜索只在自己的面板副本上进行。截止时间到了、{@link #stop()} 或线程被中断时，
+ * 正在进行的一层在下一次列出候选时放弃。第一层总会评估完，所以总能选出落点。
+ *
+ * @author Yo Ka
+ */
+public class AnytimeAI implements AI {
+    public static final int DEFAULT_BEAM_WIDTH = 4;
+    public static final int DEFAULT_MAX_DEPTH = 3;
+
+    private final Board board;
+    private final Supplier<Block> nextBlock;
+    private final Evaluator evaluator;
+    private final int beamWidth;
+    private final int maxDepth;
+
+    // 搜索用的面板副本，逐层固定候选、返回时撤销
+    private final Board scratch;
+    // 第i层的候选和展开的候选
+    private final Candidates[] candidates;
+    private final int[][] beams;
+
+    // 已知的小方块：当前的和预览的
+    private final Block[] known = new Block[2];
+    private int knownCount;
+
+    private volatile TranspositionTable tt;
+    private volatile boolean stopped = false;
+
+    // 本次搜索的截止时间，只在搜索的线程中访问
+    private boolean hasDeadline;
+    private long deadline;
+    private int evaluatedCount;
+    private int completedDepth;
+
+    /**
+     * 搜索超时或被取消，没有栈
+     */
+    private static class Abort extends RuntimeException {
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Abort ABORT = new Abort();
+
+    public AnytimeAI(Board board, Supplier<Block> nextBlock) {
+        this(board, nextBlock, ElTetris.defaultEvaluator(), DEFAULT_BEAM_WIDTH, DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * @param nextBlock 获取下一个小方块，返回null时第二层也当作未知
+     * @param beamWidth 每层展开的落点数
+     * @param maxDepth 最多搜索的层数，没有截止时间时总是搜索到这一层
+     */
+    public AnytimeAI(Board board, Supplier<Block> nextBlock, Evaluator evaluator, int beamWidth, int maxDepth) {
+        if (beamWidth < 1)
+            throw new IllegalArgumentException("beamWidth = " + beamWidth);
+        if (maxDepth < 1)
+            throw new IllegalArgumentException("maxDepth = " + maxDepth);
+
+        this.board = board;
+        this.nextBlock = nextBlock;
+        this.evaluator = evaluator;
+        this.beamWidth = beamWidth;
+        this.maxDepth = maxDepth;
+
+        scratch = new Board(board);
+        candidates = new Candidates[maxDepth];
+        beams = new int[maxDepth][beamWidth];
+        for (int i = 0; i < maxDepth; i++)
+            candidates[i] = new Candidates(board.getColumnsCount());
+    }
+
+    /**
+     * 设置置换表，只用于叶子的落点得分，可以与其他使用相同评估函数的 AI 共享
+     * @param tt 为null时不缓存
+     */
+    public void setTranspositionTable(TranspositionTable tt) {
+        this.tt = tt;
+    }
+
+    /**
+     * 上一次 calBestColAndStat 完整搜索完的层数，0表示被取消
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    @Override
+    public boolean usesDeadline() {
+        return true;
+    }
+
+    @Override
+    public int getCandidatesCount() {
+        return evaluatedCount;
+    }
+
+    @Override
+    public void calBestColAndStat() {
+        hasDeadline = false;
+        search();
+    }
+
+    @Override
+    public void calBestColAndStat(long deadline) {
+        hasDeadline = true;
+        this.deadline = deadline;
+        search();
+    }
+
+    private void checkAbort() {
+        if (stopped || Thread.currentThread().isInterrupted()
+                || (hasDeadline && System.nanoTime() - deadline >= 0))
+            throw ABORT;
+    }
+
+    private void search() {
+        Block block = board.getDanglingBlock();
+        assert block != null;
+        evaluatedCount = 0;
+        completedDepth = 0;
+
+        known[0] = block;
+        known[1] = nextBlock.get();
+        knownCount = known[1] == null ? 1 : 2;
+        scratch.copyFrom(board);
+
+        int best = -1;
+        long lastStart = System.nanoTime();
+        try {
+            // 第一层的静态得分，各层共用。这一层不检查截止时间和 stop，保证总能选出落点
+            Candidates root = candidates[0];
+            evaluate(0, block);
+            best = root.best();
+            completedDepth = 1;
+            if (best < 0)
+                return; // 没有能放下的位置
+
+            for (int depth = 2; depth <= maxDepth; depth++) {
+                long now = System.nanoTime();
+                // 下一层大约要多花分支因子倍的时间，来不及就不开始
+                long factor = depth > knownCount ? (long) beamWidth * BlockType.count() : beamWidth;
+                if (hasDeadline && now + (now - lastStart) * factor - deadline >= 0)
+                    break;
+                lastStart = now;
+                best = searchRoot(depth);
+                completedDepth = depth;
+            }
+        } catch (Abort e) {
+            // 使用上一层的结果
+        } finally {
+            if (best >= 0)
+                board.setDanglingBlock(candidates[0].xs[best], -Block.SIDE_LEN, candidates[0].blocks[best]);
+        }
+    }
+
+    /**
+     * 列出第 level 层的面板（已经固定了前 level 层的候选）上 piece 的候选并评估
+     */
+    private void evaluate(int level, Block piece) {
+        Board b = scratch;
+        Candidates c = candidates[level];
+        int count = c.list(b, piece);
+        evaluatedCount += c.evaluate(b, evaluator, tt, 0, count);
+    }
+
+    /**
+     * 选出第 level 层得分最高的 beamWidth 个候选，按得分从高到低排列，得分相同时靠前的在前
+     * @return 选出的个数
+     */
+    private int selectBeam(int level) {
+        Candidates c = candidates[level];
+        int[] beam = beams[level];
+        int size = 0;
+        for (int i = 0; i < c.count; i++) {
+            double score = c.scores[i];
+            if (!(score > Double.NEGATIVE_INFINITY))
+                continue; // 放不下
+            if (size == beamWidth && score <= c.scores[beam[size - 1]])
+                continue;
+
+            int j = size < beamWidth ? size++ : size - 1;
+            while (j > 0 && c.scores[beam[j - 1]] < score) {
+                beam[j] = beam[j - 1];
+                j--;
+            }
+            beam[j] = i;
+        }
+        return size;
+    }
+
+    /**
+     * 在第一层已评估的候选中搜索 depth 层
+     * @return 最好的候选，都会顶到屏幕外时返回第一层得分最高的
+     */
+    private int searchRoot(int depth) {
+        Candidates root = candidates[0];
+        int size = selectBeam(0);
+        int best = -1;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < size; j++) {
+            int i = beams[0][j];
+            double score = child(0, i, depth - 1);
+            // 得分相同时取第一层序号小的
+            if (score > bestScore || (score == bestScore && best >= 0 && i < best)) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return best >= 0 ? best : root.best();
+    }
+
+    /**
+     * 固定第 level 层的第i个候选后，再搜索 depth 层的得分
+     */
+    private double child(int level, int i, int depth) {
+        Candidates c = candidates[level];
+        if (!Candidates.push(scratch, c.blocks[i], c.xs[i]))
+            return Double.NEGATIVE_INFINITY; // 顶到屏幕外了
+        try {
+            return expect(level + 1, depth);
+        } finally {
+            scratch.undoMerge();
+        }
+    }
+
+    /**
+     * 第 level 层的面板上再搜索 depth 层的得分，小方块未知时取7种小方块的平均值
+     */
+    private double expect(int level, int depth) {
+        if (level < knownCount)
+            return best(level, known[level], depth);
+
+        double sum = 0;
+        for (int t = 0; t < BlockType.count(); t++)
+            sum += best(level, BlockType.valueOf(t).getBlock(0), depth);
+        return sum / BlockType.count();
+    }
+
+    /**
+     * 第 level 层的面板上放 piece，再搜索 depth - 1 层的最好得分
+     */
+    private double best(int level, Block piece, int depth) {
+        checkAbort();
+        evaluate(level, piece);
+        Candidates c = candidates[level];
+        if (depth == 1) {
+            int best = c.best();
+            return best < 0 ? Double.NEGATIVE_INFINITY : c.scores[best];
+        }
+
+        int size = selectBeam(level);
+        double best = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < size; j++)
+            best = Math.max(best, child(level, beams[level][j], depth - 1));
+        return best;
+    }
+
+    /**
+     * 取消正在进行的搜索，之后只搜索第一层
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+}
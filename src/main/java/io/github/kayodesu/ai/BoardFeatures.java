@@ -0,0 +1,194 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.engine.Board;
+
+/**
+ * 面板的所有特征的原始数据，供 {@link Feature} 计算特征值。
+ * 可以一次扫描面板得到（自上而下逐行进行，全部是位运算，不分配内存），
+ * 也可以直接读取面板增量维护的统计。
+ * 实例可以重复使用，但不是线程安全的。
+ *
+ * @author Yo Ka
+ */
+public class BoardFeatures {
+
+    private int rowsCount, columnsCount;
+
+    double landingHeight;
+    int rowsEliminated;
+    int rowTransitions;
+    int columnTransitions;
+    int holes;
+    int rowsWithHoles;
+    int wellSums;
+    int holeDepth;
+
+    // 每一列的高度，没有小方块的列高度为0
+    final int[] heights = new int[Board.MAX_COLUMNS_COUNT];
+
+    // 扫描过程中每一列的井深、上方已有的小方块数
+    private final int[] wellDepths = new int[Board.MAX_COLUMNS_COUNT];
+    private final int[] filledAbove = new int[Board.MAX_COLUMNS_COUNT];
+
+    public int getRowsCount() {
+        return rowsCount;
+    }
+
+    public int getColumnsCount() {
+        return columnsCount;
+    }
+
+    public double getLandingHeight() {
+        return landingHeight;
+    }
+
+    public int getRowsEliminated() {
+        return rowsEliminated;
+    }
+
+    public int getRowTransitions() {
+        return rowTransitions;
+    }
+
+    public int getColumnTransitions() {
+        return columnTransitions;
+    }
+
+    public int getHoles() {
+        return holes;
+    }
+
+    public int getRowsWithHoles() {
+        return rowsWithHoles;
+    }
+
+    public int getWellSums() {
+        return wellSums;
+    }
+
+    /**
+     * 每个洞上方已有小方块数之和，只在 detailed 扫描时计算
+     */
+    public int getHoleDepth() {
+        return holeDepth;
+    }
+
+    public int getHeight(int x) {
+        return heights[x];
+    }
+
+    /**
+     * 扫描面板（包括贴上去的 danglingBlock）。
+     * @param detailed 是否计算需要逐格统计的特征（如 hole depth）
+     */
+    public void scan(Board board, boolean detailed) {
+        rowsCount = board.getRowsCount();
+        columnsCount = board.getColumnsCount();
+        int fullRow = board.getFullRow();
+
+        landingHeight = landingHeight(board);
+        rowsEliminated = 0;
+        rowTransitions = 0;
+        columnTransitions = 0;
+        holes = 0;
+        rowsWithHoles = 0;
+        wellSums = 0;
+        holeDepth = 0;
+        for (int x = 0; x < columnsCount; x++) {
+            heights[x] = 0;
+            wellDepths[x] = 0;
+            filledAbove[x] = 0;
+        }
+
+        // 行转换时左右边界视为filled cell：最低位是左边界，第col+1位是右边界
+        long borders = 1L | (1L << (columnsCount + 1));
+        long pairs = (1L << (columnsCount + 1)) - 1;
+        int rightWall = 1 << (columnsCount - 1);
+
+        int covered = 0; // 上方有filled cell的列
+        int inWell = 0;  // 已经进入井中的列
+        int last = 0;    // 上一行，列转换时上边界视为empty cell
+
+        for (int y = 0; y < rowsCount; y++) {
+            int row = board.getRow(y);
+
+            if (row == fullRow)
+                rowsEliminated++;
+
+            long bordered = ((row & 0xffffffffL) << 1) | borders;
+            rowTransitions += Long.bitCount((bordered ^ (bordered >>> 1)) & pairs);
+
+            columnTransitions += Integer.bitCount(row ^ last);
+            last = row;
+
+            int holeMask = covered & ~row;
+            if (holeMask != 0) {
+                holes += Integer.bitCount(holeMask);
+                rowsWithHoles++;
+                if (detailed) {
+                    for (int m = holeMask; m != 0; m &= m - 1)
+                        holeDepth += filledAbove[Integer.numberOfTrailingZeros(m)];
+                }
+            }
+
+            // 井：列顶之上的空格子，且第一个格子左右都是filled cell或边界
+            int open = ~row & ~covered & fullRow;
+            int leftFilled = (row << 1) | 1;
+            int rightFilled = (row >>> 1) | rightWall;
+            inWell |= open & leftFilled & rightFilled;
+            for (int m = inWell & open; m != 0; m &= m - 1) {
+                int x = Integer.numberOfTrailingZeros(m);
+                wellSums += ++wellDepths[x]; // 深度为n的井累加 1 + 2 + ... + n
+            }
+
+            for (int m = row & ~covered; m != 0; m &= m - 1)
+                heights[Integer.numberOfTrailingZeros(m)] = rowsCount - y;
+            covered |= row;
+
+            if (detailed) {
+                for (int m = row; m != 0; m &= m - 1)
+                    filledAbove[Integer.numberOfTrailingZeros(m)]++;
+            }
+        }
+
+        // 下边界视为filled cell
+        columnTransitions += Integer.bitCount(~last & fullRow);
+    }
+
+    /**
+     * 直接读取面板增量维护的统计，代价只与列数有关。
+     * 只填充 {@link Feature#isIncremental()} 的特征需要的数据。
+     */
+    public void load(Board board) {
+        rowsCount = board.getRowsCount();
+        columnsCount = board.getColumnsCount();
+
+        landingHeight = landingHeight(board);
+        rowsEliminated = board.getFullRowsCount();
+        rowTransitions = board.getRowTransitions();
+        columnTransitions = board.getColumnTransitions();
+        holes = board.getHoles();
+        wellSums = board.getWellSums();
+        for (int x = 0; x < columnsCount; x++)
+            heights[x] = board.getHeight(x);
+    }
+
+    /**
+     * Landing Height: The height where the piece is put
+     * (= the height of the column + (the height of the piece / 2))
+     */
+    private static double landingHeight(Board board) {
+        Block block = board.getDanglingBlock();
+        if (block == null)
+            return 0;
+
+        int blockHeight = block.getHeight();
+
+        int columnHeight = board.getRowsCount() - (board.blockTop + block.getTop());
+        if (columnHeight > board.getRowsCount())
+            columnHeight = 10000; // todo
+
+        return columnHeight + blockHeight/2.0;
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.Board.ConflictType;
+import io.github.kayodesu.engine.Zobrist;
+
+import static io.github.kayodesu.engine.Board.ConflictType.NONE_CONFLICT;
+
+/**
+ * 一个小方块所有的 (形态, 列) 候选落点，以及每个候选的得分。
+ * 候选的顺序即串行搜索的顺序，得分相同时取靠前的候选。
+ *
+ * @author Yo Ka
+ */
+class Candidates {
+    // 指向 Placements 中共享的表，只读
+    Block[] blocks;
+    int[] xs;
+    final double[] scores;
+    int count;
+
+    private final Placements placements;
+
+    Candidates(int columnsCount) {
+        placements = Placements.of(columnsCount);
+        scores = new double[4 * columnsCount];
+    }
+
+    /**
+     * 按顺序列出 block 所有的 (形态, 列) 候选，从 block 当前的形态开始，见 {@link Placements}
+     * @return 候选的个数
+     */
+    int list(Board board, Block block) {
+        assert Placements.of(board.getColumnsCount()) == placements;
+        blocks = placements.blocksOf(block);
+        xs = placements.xsOf(block);
+        count = blocks.length;
+        return count;
+    }
+
+    /**
+     * @return 得分最高的候选，得分相同时取靠前的；没有可用的候选时返回-1
+     */
+    int best() {
+        int best = -1;
+        double maxScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            if (scores[i] > maxScore) {
+                maxScore = scores[i];
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 将 block 从第x列的顶部直接落下，评估落点的得分
+     * @return 得分，这一列放不下时返回 NaN
+     */
+    static double evaluate(Board board, Evaluator evaluator, Block block, int x) {
+        ConflictType type = board.setDanglingBlock(x, board.dropRow(block, x), block);
+        if (type != NONE_CONFLICT) {
+            return Double.NaN;
+        }
+
+        // block 已经悬停在底部了
+
+        board.pasteDanglingBlock();
+        double score = evaluator.evaluate(board);
+        board.unPasteDanglingBlock();
+        return score;
+    }
+
+    /**
+     * 评估第 [from, to) 个候选，得分写入 scores，先在置换表 tt 中查找
+     * @param tt 置换表，为null时不缓存
+     * @return 实际评估的候选数，置换表命中的不算
+     */
+    int evaluate(Board board, Evaluator evaluator, TranspositionTable tt, int from, int to) {
+        if (tt == null) {
+            for (int i = from; i < to; i++)
+                scores[i] = evaluate(board, evaluator, blocks[i], xs[i]);
+            return to - from;
+        }
+
+        int evaluated = 0;
+        long hash = board.getHash();
+        for (int i = from; i < to; i++) {
+            long key = hash ^ Zobrist.placement(blocks[i], xs[i]);
+            double score = tt.probe(key, 0);
+            if (Double.isNaN(score)) {
+                score = evaluate(board, evaluator, blocks[i], xs[i]);
+                evaluated++;
+                if (!Double.isNaN(score))
+                    tt.store(key, 0, score);
+            }
+            scores[i] = score;
+        }
+        return evaluated;
+    }
+
+    /**
+     * 将 block 从第x列的顶部直接落下并固定（会消行）
+     * @return 是否放得下且没有顶到屏幕外
+     */
+    static boolean place(Board board, Block block, int x) {
+        if (board.setDanglingBlock(x, board.dropRow(block, x), block) != NONE_CONFLICT)
+            return false;
+
+        board.merge();
+        return !board.isFull();
+    }
+
+    /**
+     * 同 {@link #place(Board, Block, int)}，但用 {@link Board#mergeUndoable()} 固定，
+     * 之后用 {@link Board#undoMerge()} 还原。
+     * @return 是否放得下且没有顶到屏幕外；返回false时面板不变，不需要还原
+     */
+    static boolean push(Board board, Block block, int x) {
+        if (board.setDanglingBlock(x, board.dropRow(block, x), block) != NONE_CONFLICT)
+            return false;
+
+        board.mergeUndoable();
+        if (board.isFull()) {
+            board.undoMerge();
+            return false;
+        }
+        return true;
+    }
+}
@@ -1,224 +1,147 @@
 package io.github.kayodesu.ai;
 
-import io.github.kayodesu.Container;
 import io.github.kayodesu.block.Block;
+import io.github.kayodesu.engine.Board;
 
-import java.util.stream.IntStream;
-
-import static io.github.kayodesu.Container.CellStat.*;
-import static io.github.kayodesu.Container.ConflictType.NONE_CONFLICT;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author Yo Ka
  */
 public class ElTetris implements AI {
-    private Container container;
+    private Board board;
 
-    public ElTetris(Container container) {
-        this.container = container;
-    }
+    // 并行搜索用的线程池，串行搜索时为null
+    private final ForkJoinPool pool;
 
-    // weights
-    private static final double LANDING_HEIGHT_WEIGHT     = -4.500158825082766;
-    private static final double ROWS_ELIMINATED_WEIGHT    = +3.4181268101392694;
-    private static final double ROW_TRANSITIONS_WEIGHT    = -3.2178882868487753;
-    private static final double COLUMN_TRANSITIONS_WEIGHT = -9.348695305445199;
-    private static final double NUMBER_OF_HOLES_WEIGHT    = -7.899265427351652;
-    private static final double WELL_SUMS_WEIGHT          = -3.3855972247263626;
+    // 每个搜索线程私有的面板副本和评估函数
+    private final ThreadLocal<Worker> workers;
 
-    /**
-     * 1. Landing Height: The height where the piece is put
-     * (= the height of the column + (the height of the piece / 2))
-     */
-    private static double landingHeight(Container container) {
-        int blockHeight = container.getDanglingBlock().getHeight();
-        int blockTopSpace = Block.SIDE_LEN - blockHeight;
+    // 每个并行任务最多评估的候选数
+    private static final int TASK_CANDIDATES_COUNT = 4;
 
-        int columnHeight = container.getRowsCount() - (container.blockTop + blockTopSpace);
-        if (columnHeight > container.getRowsCount())
-            columnHeight = 10000; // todo
+    // 所有的 (形态, 列) 候选，以及每个候选的得分
+    private final Candidates candidates;
+    // 决策的序号，每个线程的面板副本在一次决策中只复制一次
+    private long decision = 0;
 
-        return columnHeight + blockHeight/2.0;
+    // 本次评估的候选数（置换表命中的不算），并行时由各个任务累加
+    private final LongAdder evaluatedCount = new LongAdder();
+
+    // 缓存落点得分的置换表，为null时不缓存
+    private volatile TranspositionTable tt;
+
+    public ElTetris(Board board) {
+        this(board, 1);
     }
 
     /**
-     * 2. Rows eliminated: The number of rows eliminated.
+     * @param parallelism 评估候选落点使用的线程数，1表示在调用线程中串行搜索
      */
-    private static int rowsEliminated(Container.Cell[][] cellMatrix) {
-        int num = 0;
-
-        int col = cellMatrix.length;
-        int row = cellMatrix[0].length;
-        for (int y = 0; y < row; y++) {
-            int x;
-            for (x = 0; x < col; x++) {
-                if (cellMatrix[x][y].stat == EMPTY)
-                    break;
-            }
-            if (x == col) { // find a full row
-                num++;
-            }
-        }
-
-        return num;
+    public ElTetris(Board board, int parallelism) {
+        this(board, defaultEvaluator(), parallelism);
     }
 
     /**
-     * 3. Row Transitions: The total number of row transitions.
-     * A row transition occurs when an empty cell is adjacent to a filled cell
-     * on the same row and vice versa.
-     * 左右边界视为filled cell
+     * @param evaluator 评估落点的函数
+     * @param parallelism 评估候选落点使用的线程数，1表示在调用线程中串行搜索
      */
-    private static int rowTransitions(Container.Cell[][] cellMatrix) {
-        int transitions = 0;
-
-        int col = cellMatrix.length;
-        int row = cellMatrix[0].length;
-
-        for (int y = 0; y < row; y++) {
-            var lastStat = SOLIDIFY;
-
-            for (var column : cellMatrix) {
-                if (column[y].stat != lastStat) {
-                    lastStat = column[y].stat;
-                    transitions++;
-                }
-            }
-            if (cellMatrix[col-1][y].stat == EMPTY)
-                transitions++;
-        }
-
-        return transitions;
+    public ElTetris(Board board, Evaluator evaluator, int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism = " + parallelism);
+
+        this.board = board;
+        workers = ThreadLocal.withInitial(() -> new Worker(board, evaluator));
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        candidates = new Candidates(board.getColumnsCount());
     }
 
     /**
-     * 4. Column Transitions: The total number of column transitions.
-     * A column transition occurs when an empty cell is adjacent to a filled cell
-     * on the same column and vice versa.
-     * 上边界视为empty cell，下边界视为filled cell
+     * 设置缓存落点得分的置换表，可以与其他使用相同评估函数的 AI 共享
+     * @param tt 为null时不缓存
      */
-    private static int columnTransitions(Container.Cell[][] cellMatrix) {
-        int transitions = 0;
-
-        for (var column : cellMatrix) {
-            var lastStat = EMPTY;
-
-            for (var cell : column) {
-                if (cell.stat != lastStat) {
-                    transitions++;
-                    lastStat = cell.stat;
-                }
-            }
-            if (column[column.length-1].stat == EMPTY)
-                transitions++;
-        }
+    public void setTranspositionTable(TranspositionTable tt) {
+        this.tt = tt;
+    }
 
-        return transitions;
+    public TranspositionTable getTranspositionTable() {
+        return tt;
     }
 
+    // weights
+    private static final double LANDING_HEIGHT_WEIGHT     = -4.500158825082766;
+    private static final double ROWS_ELIMINATED_WEIGHT    = +3.4181268101392694;
+    private static final double ROW_TRANSITIONS_WEIGHT    = -3.2178882868487753;
+    private static final double COLUMN_TRANSITIONS_WEIGHT = -9.348695305445199;
+    private static final double NUMBER_OF_HOLES_WEIGHT    = -7.899265427351652;
+    private static final double WELL_SUMS_WEIGHT          = -3.3855972247263626;
+
     /**
-     * 5. Number of Holes: A hole is an empty cell
-     * that has at least one filled cell above it in the same column.
+     * El-Tetris 的六个特征及其权重
      */
-    private static int numberOfHoles(Container.Cell[][] cellMatrix) {
-        int num = 0; // number of holes
-
-        for (var column : cellMatrix) {
-            boolean filledCellAbove = false;
-            for (var cell : column) {
-                if (cell.stat != EMPTY) {
-                    filledCellAbove = true;
-                } else if (filledCellAbove) {
-                    num++;
-                }
-            }
-        }
-
-        return num;
+    public static Evaluator defaultEvaluator() {
+        return new Evaluator()
+                .add(Features.LANDING_HEIGHT, LANDING_HEIGHT_WEIGHT)
+                .add(Features.ROWS_ELIMINATED, ROWS_ELIMINATED_WEIGHT)
+                .add(Features.ROW_TRANSITIONS, ROW_TRANSITIONS_WEIGHT)
+                .add(Features.COLUMN_TRANSITIONS, COLUMN_TRANSITIONS_WEIGHT)
+                .add(Features.HOLES, NUMBER_OF_HOLES_WEIGHT)
+                .add(Features.WELL_SUMS, WELL_SUMS_WEIGHT);
     }
 
     /**
-     * 6. Well Sums: A well is a sequence of empty cells above the top piece in a column
-     * such that the top cell in the sequence is surrounded (left and right)
-     * by occupied cells or a boundary of the board.
-     *
-     * @return :
-     *    The well sums. For a well of length n, we define the well sums as
-     *    1 + 2 + 3 + ... + n. This gives more significance to deeper holes.
+     * 评估 [from, to) 范围内的候选，得分写入 scores。
+     * 每个任务在自己的面板副本上评估。
      */
-    private static int wellSums(Container.Cell[][] cellMatrix) {
-        int sums = 0;
-
-        for (int x = 0; x < cellMatrix.length; x++) {
-            int deep = 0;
-            boolean inWell = false;
-
-            for (int y = 0; y < cellMatrix[x].length; y++) {
-                if (cellMatrix[x][y].stat != EMPTY)
-                    break; // 触底了
-                if (!inWell) {
-                    if (((x-1 < 0) || (cellMatrix[x-1][y].stat != EMPTY))
-                            && ((x+1 >= cellMatrix.length) || (cellMatrix[x+1][y].stat != EMPTY))) {
-                        inWell = true;
-                        deep = 1;
-                    }
-                } else { // in well
-                    deep++;
-                }
-            }
+    private class EvaluateTask extends RecursiveAction {
+        private final int from, to;
 
-            sums += IntStream.rangeClosed(0, deep).sum();
+        EvaluateTask(int from, int to) {
+            this.from = from;
+            this.to = to;
         }
 
-        return sums;
-    }
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_CANDIDATES_COUNT) {
+                Worker worker = workers.get();
+                worker.sync(board, decision);
+                evaluatedCount.add(candidates.evaluate(worker.board, worker.evaluator, tt, from, to));
+                return;
+            }
 
-    private static double evaluateScore(Container container) {
-        Container.Cell[][] cellMatrix = container.getCellMatrix();
-        return landingHeight(container) * LANDING_HEIGHT_WEIGHT
-                + rowsEliminated(cellMatrix)*ROWS_ELIMINATED_WEIGHT
-                + rowTransitions(cellMatrix)*ROW_TRANSITIONS_WEIGHT
-                + columnTransitions(cellMatrix)*COLUMN_TRANSITIONS_WEIGHT
-                + numberOfHoles(cellMatrix)*NUMBER_OF_HOLES_WEIGHT
-                + wellSums(cellMatrix)*WELL_SUMS_WEIGHT;
+            int mid = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(from, mid), new EvaluateTask(mid, to));
+        }
     }
 
     public void calBestColAndStat() {
-        Block block = container.getDanglingBlock();
+        Block block = board.getDanglingBlock();
         assert block != null;
-
-        double maxScore = Double.NEGATIVE_INFINITY;
-        int col = 0;
-        int blockStat = 1;
-
-        for (int i = block.getStatsCount(); i > 0; i--) {
-            for (int x = -Block.SIDE_LEN + 1; x < container.getColumnsCount(); x++) {
-                Container.ConflictType type = container.setDanglingBlock(x, -Block.SIDE_LEN, block);
-                if (type != NONE_CONFLICT) {
-                    continue;
-                }
-
-                while (container.tryMoveDown());
-
-                // block 已经悬停在底部了
-
-                container.pasteDanglingBlock();
-                double score = evaluateScore(container);
-                container.unPasteDanglingBlock();
-
-                if (score > maxScore) {
-                    maxScore = score;
-                    col = x;
-                    blockStat = block.getStat();
-                }
-            }
-
-            block.switchToNextStat();
+        int left = board.blockLeft, top = board.blockTop;
+
+        decision++;
+        int count = candidates.list(board, block);
+        evaluatedCount.reset();
+        if (pool == null) {
+            // 在调用线程的面板副本上评估，游戏的面板（界面正在显示）只在最后设置一次落点
+            Worker worker = workers.get();
+            worker.sync(board, decision);
+            evaluatedCount.add(candidates.evaluate(worker.board, worker.evaluator, tt, 0, count));
+        } else {
+            pool.invoke(new EvaluateTask(0, count));
         }
 
-        assert blockStat > 0;
-        block.switchToStat(blockStat);
-        container.setDanglingBlock(col, -Block.SIDE_LEN, block);
+        // 按串行的顺序取得分最高的，得分相同时取靠前的，并行与串行的结果一致
+        int best = candidates.best();
+        if (best < 0) {
+            // 没有能放下的位置，保持原样
+            board.setDanglingBlock(left, top, block);
+            return;
+        }
+        board.setDanglingBlock(candidates.xs[best], -Block.SIDE_LEN, candidates.blocks[best]);
     }
 
 //    public void fallOne() {
@@ -232,7 +155,13 @@ public class ElTetris implements AI {
 //        }
 //    }
 
-    public void stop() {
+    @Override
+    public int getCandidatesCount() {
+        return evaluatedCount.intValue();
+    }
 
+    public void stop() {
+        if (pool != null)
+            pool.shutdownNow();
     }
 }
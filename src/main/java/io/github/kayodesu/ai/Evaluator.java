@@ -0,0 +1,152 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.engine.Board;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * 线性评估函数：已注册特征的加权和。
+ * 所有特征都能从面板增量维护的统计得到时直接读取统计，
+ * 否则所有特征共用一次面板扫描，见 {@link BoardFeatures}。
+ * 实例带有扫描用的缓冲区，不是线程安全的，多线程时每个线程使用 {@link #copy()}。
+ *
+ * @author Yo Ka
+ */
+public class Evaluator {
+
+    private Feature[] features = new Feature[0];
+    private double[] weights = new double[0];
+    private boolean detailed = false;
+    private boolean incremental = true;
+
+    private final BoardFeatures scan = new BoardFeatures();
+
+    /**
+     * 注册一个特征
+     * @return this
+     */
+    public Evaluator add(Feature feature, double weight) {
+        int n = features.length;
+        features = Arrays.copyOf(features, n + 1);
+        weights = Arrays.copyOf(weights, n + 1);
+        features[n] = feature;
+        weights[n] = weight;
+        detailed |= feature.isDetailed();
+        incremental &= feature.isIncremental();
+        return this;
+    }
+
+    public int getFeaturesCount() {
+        return features.length;
+    }
+
+    public Feature getFeature(int i) {
+        return features[i];
+    }
+
+    public double getWeight(int i) {
+        return weights[i];
+    }
+
+    public void setWeight(int i, double weight) {
+        weights[i] = weight;
+    }
+
+    /**
+     * 所有的权重，按特征注册的顺序
+     */
+    public double[] getWeights() {
+        return weights.clone();
+    }
+
+    public void setWeights(double[] weights) {
+        if (weights.length != this.weights.length)
+            throw new IllegalArgumentException("expected " + this.weights.length + " weights, got " + weights.length);
+        System.arraycopy(weights, 0, this.weights, 0, weights.length);
+    }
+
+    /**
+     * 从文件读取评估函数：每行 特征名=权重，特征名是 {@link Features} 的名字，
+     * 按 {@link Features} 的顺序注册
+     */
+    public static Evaluator load(Path path) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+
+        Evaluator evaluator = new Evaluator();
+        for (Features feature : Features.values()) {
+            String value = props.getProperty(feature.name());
+            if (value != null)
+                evaluator.add(feature, Double.parseDouble(value.trim()));
+        }
+        if (evaluator.getFeaturesCount() == 0)
+            throw new IOException("no feature weights in " + path);
+        return evaluator;
+    }
+
+    /**
+     * 保存权重，格式见 {@link #load(Path)}。只支持 {@link Features} 中的特征
+     */
+    public void save(Path path) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < features.length; i++) {
+            if (!(features[i] instanceof Features))
+                throw new IllegalStateException("can not save feature " + features[i]);
+            sb.append(((Features) features[i]).name()).append('=').append(weights[i]).append(System.lineSeparator());
+        }
+        try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            writer.write(sb.toString());
+        }
+    }
+
+    /**
+     * 共享特征和权重，但有自己的扫描缓冲区
+     */
+    public Evaluator copy() {
+        Evaluator copy = new Evaluator();
+        copy.features = features;
+        copy.weights = weights;
+        copy.detailed = detailed;
+        copy.incremental = incremental;
+        return copy;
+    }
+
+    /**
+     * 在 columnsCount × rowsCount 的面板上评估得分的上界，由每个特征的取值范围和权重得到。
+     * 有特征的范围未知时返回正无穷
+     */
+    public double upperBound(int columnsCount, int rowsCount) {
+        double bound = 0;
+        for (int i = 0; i < features.length; i++) {
+            if (weights[i] > 0)
+                bound += weights[i] * features[i].maxValue(columnsCount, rowsCount);
+            else if (weights[i] < 0)
+                bound += weights[i] * features[i].minValue(columnsCount, rowsCount);
+        }
+        return bound;
+    }
+
+    /**
+     * 评估面板（包括贴上去的 danglingBlock）
+     */
+    public double evaluate(Board board) {
+        if (incremental)
+            scan.load(board);
+        else
+            scan.scan(board, detailed);
+
+        double score = 0;
+        for (int i = 0; i < features.length; i++)
+            score += features[i].value(scan) * weights[i];
+        return score;
+    }
+}
@@ -0,0 +1,431 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+import io.github.kayodesu.engine.Board;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Expectimax 搜索：第一层是当前的小方块，第二层是预览的下一个小方块，
+ * 再往后的小方块未知，在机会节点上按出块的概率取7种小方块最好得分的加权平均。
+ * 每个小方块只展开评估得分最高的 beamWidth 个落点，叶子的得分是最后一个小方块的落点的评估得分
+ * （与 {@link AnytimeAI} 相同，深度为1时与 {@link ElTetris} 的结果相同）。
+ *
+ * 剪枝（Star1）：评估函数的得分有上界（见 {@link Evaluator#upperBound(int, int)}），
+ * 机会节点已经算出的部分加上其余的小方块都取上界，仍然低于兄弟节点中最好的得分时，不再展开。
+ * 被剪掉的节点返回的是低于兄弟节点的上界，所以选出的落点与不剪枝时相同。
+ * 上界为正无穷时（有的特征没有最大值）无法剪枝，机会节点直接取加权平均。
+ *
+ * 第一层得分最高的落点先在调用线程中搜索，得到剪枝的下界；
+ * 其余的落点在 fork/join 线程池中并行搜索，每个线程在自己的面板副本上逐层放下、撤销小方块。
+ * 有截止时间时迭代加深，到时返回已经完整搜索完的最深一层的结果。
+ * 第一层不检查截止时间，总会评估完，所以总能选出落点。
+ *
+ * @author Yo Ka
+ */
+public class ExpectimaxAI implements AI {
+    public static final int DEFAULT_BEAM_WIDTH = 6;
+    public static final int DEFAULT_MAX_DEPTH = 3;
+
+    // 浮点误差的余量，传给子节点的下界放宽一点，保证剪枝不改变结果
+    private static final double EPSILON = 1e-9;
+
+    private final Board board;
+    private final Supplier<Block> nextBlock;
+    private final int beamWidth;
+    private final int maxDepth;
+
+    // 机会节点上每种小方块的概率（按 BlockType 的序号），以及从第t种开始其余的概率之和
+    private final double[] probabilities;
+    private final double[] remaining;
+    // 叶子得分的上界，为正无穷时不剪枝
+    private final double upperBound;
+    private final boolean pruning;
+
+    // 并行搜索用的线程池，串行搜索时为null
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Searcher> searchers;
+
+    // 第一层的候选、展开的候选及其得分，只在调用线程中写
+    private final Candidates root;
+    private final int[] rootBeam;
+    private final double[] rootScores;
+
+    // 已知的小方块：当前的和预览的。搜索开始前写，搜索线程只读
+    private final Block[] known = new Block[2];
+    private int knownCount;
+
+    private volatile TranspositionTable tt;
+    private volatile boolean stopped = false;
+
+    // 本次搜索的截止时间，搜索开始前写
+    private volatile boolean hasDeadline;
+    private volatile long deadline;
+
+    private final LongAdder evaluatedCount = new LongAdder();
+    private final LongAdder prunedCount = new LongAdder();
+    private int candidatesCount;
+    private int completedDepth;
+
+    /**
+     * 每个搜索线程私有的面板副本、评估函数，以及每层的候选和展开的候选
+     */
+    private class Searcher {
+        final Board board;
+        final Evaluator evaluator;
+        final Candidates[] candidates;
+        final int[][] beams;
+
+        Searcher(Evaluator evaluator) {
+            board = new Board(ExpectimaxAI.this.board);
+            this.evaluator = evaluator.copy();
+            candidates = new Candidates[maxDepth];
+            beams = new int[maxDepth][beamWidth];
+            for (int i = 0; i < maxDepth; i++)
+                candidates[i] = new Candidates(board.getColumnsCount());
+        }
+    }
+
+    /**
+     * 搜索超时或被取消，没有栈
+     */
+    private static class Abort extends RuntimeException {
+        Abort() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Abort ABORT = new Abort();
+
+    public ExpectimaxAI(Board board, Supplier<Block> nextBlock) {
+        this(board, nextBlock, ElTetris.defaultEvaluator(), DEFAULT_BEAM_WIDTH, DEFAULT_MAX_DEPTH, null, 1);
+    }
+
+    /**
+     * @param nextBlock 获取下一个小方块，返回null时第二层也当作未知
+     * @param beamWidth 每个小方块展开的落点数
+     * @param maxDepth 最多搜索的层数，没有截止时间时总是搜索到这一层
+     * @param probabilities 未知的小方块是每种类型的概率，按 {@link BlockType} 的序号，会归一化；
+     *                      为null时均匀分布（{@link io.github.kayodesu.block.PieceGenerator.Mode} 的三种方式长期看都是均匀的）
+     * @param parallelism 搜索使用的线程数，1表示在调用线程中串行搜索
+     */
+    public ExpectimaxAI(Board board, Supplier<Block> nextBlock, Evaluator evaluator,
+                        int beamWidth, int maxDepth, double[] probabilities, int parallelism) {
+        if (beamWidth < 1)
+            throw new IllegalArgumentException("beamWidth = " + beamWidth);
+        if (maxDepth < 1)
+            throw new IllegalArgumentException("maxDepth = " + maxDepth);
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism = " + parallelism);
+
+        this.board = board;
+        this.nextBlock = nextBlock;
+        this.beamWidth = beamWidth;
+        this.maxDepth = maxDepth;
+
+        int n = BlockType.count();
+        this.probabilities = new double[n];
+        remaining = new double[n + 1];
+        if (probabilities == null) {
+            Arrays.fill(this.probabilities, 1.0 / n);
+        } else {
+            if (probabilities.length != n)
+                throw new IllegalArgumentException("expected " + n + " probabilities, got " + probabilities.length);
+            double sum = 0;
+            for (double p : probabilities) {
+                if (!(p >= 0))
+                    throw new IllegalArgumentException("probability = " + p);
+                sum += p;
+            }
+            if (!(sum > 0))
+                throw new IllegalArgumentException("probabilities sum to " + sum);
+            for (int t = 0; t < n; t++)
+                this.probabilities[t] = probabilities[t] / sum;
+        }
+        for (int t = n - 1; t >= 0; t--)
+            remaining[t] = remaining[t + 1] + this.probabilities[t];
+
+        upperBound = evaluator.upperBound(board.getColumnsCount(), board.getRowsCount());
+        // 正无穷乘以概率0是NaN，而且此时任何下界都剪不掉
+        pruning = upperBound < Double.POSITIVE_INFINITY;
+        searchers = ThreadLocal.withInitial(() -> new Searcher(evaluator));
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        root = new Candidates(board.getColumnsCount());
+        rootBeam = new int[beamWidth];
+        rootScores = new double[beamWidth];
+    }
+
+    /**
+     * 设置置换表，只用于叶子的落点得分，可以与其他使用相同评估函数的 AI 共享
+     * @param tt 为null时不缓存
+     */
+    public void setTranspositionTable(TranspositionTable tt) {
+        this.tt = tt;
+    }
+
+    /**
+     * 上一次 calBestColAndStat 完整搜索完的层数，0表示被取消
+     */
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * 累计被剪掉的机会节点数
+     */
+    public long getPrunedCount() {
+        return prunedCount.sum();
+    }
+
+    @Override
+    public boolean usesDeadline() {
+        return true;
+    }
+
+    @Override
+    public int getCandidatesCount() {
+        return candidatesCount;
+    }
+
+    @Override
+    public void calBestColAndStat() {
+        hasDeadline = false;
+        search();
+    }
+
+    @Override
+    public void calBestColAndStat(long deadline) {
+        this.deadline = deadline;
+        hasDeadline = true;
+        search();
+    }
+
+    private void checkAbort() {
+        if (stopped || Thread.currentThread().isInterrupted()
+                || (hasDeadline && System.nanoTime() - deadline >= 0))
+            throw ABORT;
+    }
+
+    private void search() {
+        Block block = board.getDanglingBlock();
+        assert block != null;
+        evaluatedCount.reset();
+        candidatesCount = 0;
+        completedDepth = 0;
+
+        known[0] = block;
+        known[1] = nextBlock.get();
+        knownCount = known[1] == null ? 1 : 2;
+        Searcher searcher = searchers.get();
+        searcher.board.copyFrom(board);
+
+        int best = -1;
+        long lastStart = System.nanoTime();
+        try {
+            // 第一层的静态得分，各层共用。这一层不检查截止时间和 stop，保证总能选出落点
+            int count = root.list(searcher.board, block);
+            evaluatedCount.add(root.evaluate(searcher.board, searcher.evaluator, tt, 0, count));
+            best = root.best();
+            completedDepth = 1;
+            if (best < 0)
+                return; // 没有能放下的位置
+
+            for (int depth = 2; depth <= maxDepth; depth++) {
+                long now = System.nanoTime();
+                // 下一层大约要多花分支因子倍的时间，来不及就不开始
+                long factor = depth > knownCount ? (long) beamWidth * BlockType.count() : beamWidth;
+                if (hasDeadline && now + (now - lastStart) * factor - deadline >= 0)
+                    break;
+                lastStart = now;
+                best = searchRoot(searcher, depth);
+                completedDepth = depth;
+            }
+        } catch (Abort e) {
+            // 使用上一层的结果
+        } finally {
+            candidatesCount = (int) evaluatedCount.sum();
+            if (best >= 0)
+                board.setDanglingBlock(root.xs[best], -Block.SIDE_LEN, root.blocks[best]);
+        }
+    }
+
+    /**
+     * 选出 c 中得分最高的 beamWidth 个候选写入 beam，按得分从高到低排列，得分相同时靠前的在前
+     * @return 选出的个数
+     */
+    private int selectBeam(Candidates c, int[] beam) {
+        int size = 0;
+        for (int i = 0; i < c.count; i++) {
+            double score = c.scores[i];
+            if (!(score > Double.NEGATIVE_INFINITY))
+                continue; // 放不下
+            if (size == beamWidth && score <= c.scores[beam[size - 1]])
+                continue;
+
+            int j = size < beamWidth ? size++ : size - 1;
+            while (j > 0 && c.scores[beam[j - 1]] < score) {
+                beam[j] = beam[j - 1];
+                j--;
+            }
+            beam[j] = i;
+        }
+        return size;
+    }
+
+    /**
+     * 在第一层已评估的候选中搜索 depth 层
+     * @return 最好的候选，都会顶到屏幕外时返回第一层得分最高的
+     */
+    private int searchRoot(Searcher searcher, int depth) {
+        int size = selectBeam(root, rootBeam);
+        double alpha = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < size; j++) {
+            if (j == 1 && pool != null) {
+                // 得分最高的落点的结果作为剪枝的下界，其余的并行搜索，结果与串行时相同。
+                // invoke 返回时所有的任务都已结束，不会有任务在下一次搜索时还在使用 rootScores
+                AtomicBoolean aborted = new AtomicBoolean();
+                pool.invoke(new RootTask(1, size, depth, alpha, aborted));
+                if (aborted.get())
+                    throw ABORT;
+                break;
+            }
+            int i = rootBeam[j];
+            rootScores[j] = child(searcher, 0, root.blocks[i], root.xs[i], depth - 1, alpha);
+            alpha = Math.max(alpha, rootScores[j]);
+        }
+
+        // 得分相同时取第一层序号小的。被剪掉的落点的得分一定低于最好的得分
+        int best = -1;
+        for (int j = 0; j < size; j++) {
+            if (rootScores[j] == Double.NEGATIVE_INFINITY)
+                continue;
+            if (best < 0 || rootScores[j] > rootScores[best]
+                    || (rootScores[j] == rootScores[best] && rootBeam[j] < rootBeam[best]))
+                best = j;
+        }
+        return best >= 0 ? rootBeam[best] : root.best();
+    }
+
+    /**
+     * 并行搜索第一层展开的第 from 到 to - 1 个落点。
+     * 搜索超时或被取消时不抛出 Abort，而是设置本次搜索的 aborted，
+     * 这样 invokeAll 不会在兄弟任务还在运行时提前返回。
+     * 叶子任务不等待其他任务，线程的 Searcher 不会在用到一半时被另一个任务使用
+     */
+    private class RootTask extends RecursiveAction {
+        private final int from, to, depth;
+        private final double alpha;
+        private final AtomicBoolean aborted;
+
+        RootTask(int from, int to, int depth, double alpha, AtomicBoolean aborted) {
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+            this.alpha = alpha;
+            this.aborted = aborted;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                if (aborted.get())
+                    return;
+                Searcher searcher = searchers.get();
+                searcher.board.copyFrom(board);
+                int i = rootBeam[from];
+                try {
+                    rootScores[from] = child(searcher, 0, root.blocks[i], root.xs[i], depth - 1, alpha);
+                } catch (Abort e) {
+                    aborted.set(true);
+                }
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new RootTask(from, mid, depth, alpha, aborted), new RootTask(mid, to, depth, alpha, aborted));
+        }
+    }
+
+    /**
+     * 固定第 level 层的一个落点后，再搜索 depth 层的得分
+     * @param alpha 兄弟节点中最好的得分，得分低于它时只需要返回一个低于它的上界
+     */
+    private double child(Searcher s, int level, Block block, int x, int depth, double alpha) {
+        if (!Candidates.push(s.board, block, x))
+            return Double.NEGATIVE_INFINITY; // 顶到屏幕外了
+        try {
+            return expect(s, level + 1, depth, alpha);
+        } finally {
+            s.board.undoMerge();
+        }
+    }
+
+    /**
+     * 第 level 层的面板上再搜索 depth 层的得分，小方块未知时是机会节点
+     */
+    private double expect(Searcher s, int level, int depth, double alpha) {
+        if (level < knownCount)
+            return best(s, level, known[level], depth, alpha);
+
+        double sum = 0;
+        for (int t = 0; t < BlockType.count(); t++) {
+            double p = probabilities[t];
+            if (p == 0)
+                continue;
+            if (!pruning) {
+                sum += p * best(s, level, BlockType.valueOf(t).getBlock(0), depth, Double.NEGATIVE_INFINITY);
+                continue;
+            }
+
+            // 其余的小方块都取上界时，这种小方块的得分至少要达到 childAlpha 才可能超过 alpha
+            double rest = remaining[t + 1] * upperBound;
+            double childAlpha = (alpha - sum - rest) / p - EPSILON;
+            sum += p * best(s, level, BlockType.valueOf(t).getBlock(0), depth, childAlpha);
+            if (sum + rest < alpha) {
+                prunedCount.increment();
+                return sum + rest;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 第 level 层的面板上放 piece，再搜索 depth - 1 层的最好得分
+     */
+    private double best(Searcher s, int level, Block piece, int depth, double alpha) {
+        checkAbort();
+        Candidates c = s.candidates[level];
+        int count = c.list(s.board, piece);
+        evaluatedCount.add(c.evaluate(s.board, s.evaluator, tt, 0, count));
+
+        if (depth == 1) {
+            int best = c.best();
+            return best < 0 ? Double.NEGATIVE_INFINITY : c.scores[best];
+        }
+
+        int[] beam = s.beams[level];
+        int size = selectBeam(c, beam);
+        double best = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < size; j++) {
+            int i = beam[j];
+            best = Math.max(best, child(s, level, c.blocks[i], c.xs[i], depth - 1, Math.max(alpha, best)));
+        }
+        return best;
+    }
+
+    /**
+     * 取消正在进行的搜索，之后只搜索第一层
+     */
+    @Override
+    public void stop() {
+        stopped = true;
+        if (pool != null)
+            pool.shutdownNow();
+    }
+}
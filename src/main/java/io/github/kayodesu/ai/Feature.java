@@ -0,0 +1,45 @@
+package io.github.kayodesu.ai;
+
+/**
+ * 评估面板的一个特征。
+ * 特征值从一次扫描得到的 {@link BoardFeatures} 中计算，
+ * 新增特征不需要再扫描一遍面板。
+ *
+ * @author Yo Ka
+ */
+@FunctionalInterface
+public interface Feature {
+
+    double value(BoardFeatures features);
+
+    /**
+     * 是否需要 {@link BoardFeatures#scan(io.github.kayodesu.engine.Board, boolean)} 的逐格统计。
+     * 无法确定时返回true。
+     */
+    default boolean isDetailed() {
+        return true;
+    }
+
+    /**
+     * 是否只依赖面板增量维护的统计，见 {@link BoardFeatures#load(io.github.kayodesu.engine.Board)}。
+     * 无法确定时返回false。
+     */
+    default boolean isIncremental() {
+        return false;
+    }
+
+    /**
+     * 在 columnsCount × rowsCount 的面板上特征值的下界，用于搜索时估计得分的上界。
+     * 无法确定时返回负无穷。
+     */
+    default double minValue(int columnsCount, int rowsCount) {
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * 在 columnsCount × rowsCount 的面板上特征值的上界，无法确定时返回正无穷。
+     */
+    default double maxValue(int columnsCount, int rowsCount) {
+        return Double.POSITIVE_INFINITY;
+    }
+}
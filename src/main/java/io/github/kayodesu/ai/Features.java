@@ -0,0 +1,227 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+
+/**
+ * 内置的特征：El-Tetris 的六个特征，以及 Dellacherie/Bertsekas 的常用特征。
+ *
+ * @author Yo Ka
+ */
+public enum Features implements Feature {
+
+    /**
+     * 1. Landing Height: The height where the piece is put
+     * (= the height of the column + (the height of the piece / 2))
+     */
+    LANDING_HEIGHT {
+        @Override
+        public double value(BoardFeatures f) {
+            return f.landingHeight;
+        }
+    },
+
+    /**
+     * 2. Rows eliminated: The number of rows eliminated.
+     */
+    ROWS_ELIMINATED {
+        @Override
+        public double value(BoardFeatures f) {
+            return f.rowsEliminated;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            // 一个小方块最多填满 SIDE_LEN 行（不考虑 fill 造出来的满行）
+            return Block.SIDE_LEN;
+        }
+    },
+
+    /**
+     * 3. Row Transitions: The total number of row transitions.
+     * A row transition occurs when an empty cell is adjacent to a filled cell
+     * on the same row and vice versa.
+     * 左右边界视为filled cell
+     */
+    ROW_TRANSITIONS {
+        @Override
+        public double value(BoardFeatures f) {
+            return f.rowTransitions;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return rowsCount * (columnsCount + 1);
+        }
+    },
+
+    /**
+     * 4. Column Transitions: The total number of column transitions.
+     * A column transition occurs when an empty cell is adjacent to a filled cell
+     * on the same column and vice versa.
+     * 上边界视为empty cell，下边界视为filled cell
+     */
+    COLUMN_TRANSITIONS {
+        @Override
+        public double value(BoardFeatures f) {
+            return f.columnTransitions;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return columnsCount * (rowsCount + 1);
+        }
+    },
+
+    /**
+     * 5. Number of Holes: A hole is an empty cell
+     * that has at least one filled cell above it in the same column.
+     */
+    HOLES {
+        @Override
+        public double value(BoardFeatures f) {
+            return f.holes;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return columnsCount * rowsCount;
+        }
+    },
+
+    /**
+     * 6. Well Sums: A well is a sequence of empty cells above the top piece in a column
+     * such that the top cell in the sequence is surrounded (left and right)
+     * by occupied cells or a boundary of the board.
+     * For a well of length n, we define the well sums as
+     * 1 + 2 + 3 + ... + n. This gives more significance to deeper holes.
+     */
+    WELL_SUMS {
+        @Override
+        public double value(BoardFeatures f) {
+            return f.wellSums;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return columnsCount * rowsCount * (rowsCount + 1) / 2.0;
+        }
+    },
+
+    /**
+     * 所有列的高度之和
+     */
+    AGGREGATE_HEIGHT {
+        @Override
+        public double value(BoardFeatures f) {
+            int sum = 0;
+            for (int x = 0; x < f.getColumnsCount(); x++)
+                sum += f.heights[x];
+            return sum;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return columnsCount * rowsCount;
+        }
+    },
+
+    /**
+     * 最高的列的高度
+     */
+    MAX_HEIGHT {
+        @Override
+        public double value(BoardFeatures f) {
+            int max = 0;
+            for (int x = 0; x < f.getColumnsCount(); x++)
+                max = Math.max(max, f.heights[x]);
+            return max;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return rowsCount;
+        }
+    },
+
+    /**
+     * Bumpiness: 相邻两列高度差的绝对值之和
+     */
+    BUMPINESS {
+        @Override
+        public double value(BoardFeatures f) {
+            int sum = 0;
+            for (int x = 1; x < f.getColumnsCount(); x++)
+                sum += Math.abs(f.heights[x] - f.heights[x - 1]);
+            return sum;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return (columnsCount - 1) * rowsCount;
+        }
+    },
+
+    /**
+     * Hole Depth: 每个洞上方同一列中已有小方块数之和
+     */
+    HOLE_DEPTH {
+        @Override
+        public double value(BoardFeatures f) {
+            return f.holeDepth;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return (double) columnsCount * rowsCount * rowsCount;
+        }
+
+        @Override
+        public boolean isDetailed() {
+            return true;
+        }
+
+        @Override
+        public boolean isIncremental() {
+            return false;
+        }
+    },
+
+    /**
+     * 至少有一个洞的行数
+     */
+    ROWS_WITH_HOLES {
+        @Override
+        public double value(BoardFeatures f) {
+            return f.rowsWithHoles;
+        }
+
+        @Override
+        public double maxValue(int columnsCount, int rowsCount) {
+            return rowsCount;
+        }
+
+        @Override
+        public boolean isIncremental() {
+            return false;
+        }
+    };
+
+    @Override
+    public boolean isDetailed() {
+        return false;
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return true;
+    }
+
+    /**
+     * 内置的特征都是计数或高度，不小于0。
+     * LANDING_HEIGHT 在小方块放到屏幕外时是一个很大的值，没有给出上界
+     */
+    @Override
+    public double minValue(int columnsCount, int rowsCount) {
+        return 0;
+    }
+}
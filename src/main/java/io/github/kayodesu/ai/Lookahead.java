@@ -0,0 +1,239 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.Zobrist;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+/**
+ * 两层搜索：利用已知的下一个小方块。
+ *
+ * 第一层用评估函数给当前小方块的所有落点打分，只保留得分最高的 beamWidth 个；
+ * 第二层在这些落点固定（并消行）后的面板上，取下一个小方块最好的落点得分，
+ * 作为第一层落点的得分。
+ *
+ * @author Yo Ka
+ */
+public class Lookahead implements AI {
+    public static final int DEFAULT_BEAM_WIDTH = 8;
+
+    private final Board board;
+    private final Supplier<Block> nextBlock;
+    private final int beamWidth;
+
+    // 并行搜索用的线程池，串行搜索时为null
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Worker> workers;
+
+    // 第一层的候选
+    private final Candidates candidates;
+
+    // 进入第二层的候选序号，以及它们的第二层得分和评估的候选数
+    private final int[] beam;
+    private final double[] beamScores;
+    private final int[] beamCounts;
+    private int beamSize;
+    private int evaluatedCount;
+
+    // 决策的序号，每个线程的面板副本在一次决策中只复制一次
+    private long decision = 0;
+
+    // 缓存落点得分（深度0）和第二层得分（深度1）的置换表，为null时不缓存
+    private volatile TranspositionTable tt;
+
+    /**
+     * @param nextBlock 获取下一个小方块，返回null时只搜索一层
+     */
+    public Lookahead(Board board, Supplier<Block> nextBlock) {
+        this(board, nextBlock, ElTetris.defaultEvaluator(), DEFAULT_BEAM_WIDTH, 1);
+    }
+
+    /**
+     * @param nextBlock 获取下一个小方块，返回null时只搜索一层
+     * @param beamWidth 第一层保留的候选数
+     * @param parallelism 第二层搜索使用的线程数，1表示在调用线程中串行搜索
+     */
+    public Lookahead(Board board, Supplier<Block> nextBlock, Evaluator evaluator, int beamWidth, int parallelism) {
+        if (beamWidth < 1)
+            throw new IllegalArgumentException("beamWidth = " + beamWidth);
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism = " + parallelism);
+
+        this.board = board;
+        this.nextBlock = nextBlock;
+        this.beamWidth = beamWidth;
+        workers = ThreadLocal.withInitial(() -> new Worker(board, evaluator));
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+
+        candidates = new Candidates(board.getColumnsCount());
+        beam = new int[beamWidth];
+        beamScores = new double[beamWidth];
+        beamCounts = new int[beamWidth];
+    }
+
+    /**
+     * 设置置换表，可以与其他使用相同评估函数的 AI 共享
+     * @param tt 为null时不缓存
+     */
+    public void setTranspositionTable(TranspositionTable tt) {
+        this.tt = tt;
+    }
+
+    public TranspositionTable getTranspositionTable() {
+        return tt;
+    }
+
+    /**
+     * 选出第一层得分最高的 beamWidth 个候选，按得分从高到低排列，得分相同时靠前的在前
+     */
+    private void selectBeam() {
+        beamSize = 0;
+        for (int i = 0; i < candidates.count; i++) {
+            double score = candidates.scores[i];
+            if (!(score > Double.NEGATIVE_INFINITY))
+                continue; // 放不下
+            if (beamSize == beamWidth && score <= candidates.scores[beam[beamSize - 1]])
+                continue;
+
+            // 插入排序，beamWidth很小
+            int j = beamSize < beamWidth ? beamSize++ : beamSize - 1;
+            while (j > 0 && candidates.scores[beam[j - 1]] < score) {
+                beam[j] = beam[j - 1];
+                j--;
+            }
+            beam[j] = i;
+        }
+    }
+
+    /**
+     * 固定 beam 中第j个候选后，下一个小方块最好的落点得分，写入 beamScores[j]，
+     * 评估的候选数写入 beamCounts[j]。
+     * worker 的面板必须与游戏的面板相同，固定的候选用完后撤销
+     */
+    private void secondPly(Worker worker, int j, Block next) {
+        beamScores[j] = Double.NEGATIVE_INFINITY;
+        beamCounts[j] = 0;
+        int candidate = beam[j];
+        Board copy = worker.board;
+        if (!Candidates.push(copy, candidates.blocks[candidate], candidates.xs[candidate]))
+            return; // 顶到屏幕外了
+        try {
+            secondPly(copy, worker, j, next);
+        } finally {
+            copy.undoMerge();
+        }
+    }
+
+    /**
+     * 在已经固定了第一层候选的面板 copy 上为下一个小方块选落点
+     */
+    private void secondPly(Board copy, Worker worker, int j, Block next) {
+        // 不同的第一层落点消行后可能得到相同的面板
+        TranspositionTable tt = this.tt;
+        long key = copy.getHash() ^ Zobrist.block(next);
+        if (tt != null) {
+            double cached = tt.probe(key, 1);
+            if (!Double.isNaN(cached)) {
+                beamScores[j] = cached;
+                return;
+            }
+        }
+
+        Candidates nextCandidates = worker.candidates;
+        int count = nextCandidates.list(copy, next);
+        beamCounts[j] = nextCandidates.evaluate(copy, worker.evaluator, tt, 0, count);
+
+        int best = nextCandidates.best();
+        double score = best < 0 ? Double.NEGATIVE_INFINITY : nextCandidates.scores[best];
+        if (tt != null)
+            tt.store(key, 1, score);
+        beamScores[j] = score;
+    }
+
+    private class SecondPlyTask extends RecursiveAction {
+        private final int from, to;
+        private final Block next;
+
+        SecondPlyTask(int from, int to, Block next) {
+            this.from = from;
+            this.to = to;
+            this.next = next;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                Worker worker = workers.get();
+                worker.sync(board, decision);
+                secondPly(worker, from, next);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new SecondPlyTask(from, mid, next), new SecondPlyTask(mid, to, next));
+        }
+    }
+
+    @Override
+    public void calBestColAndStat() {
+        Block block = board.getDanglingBlock();
+        assert block != null;
+        int left = board.blockLeft, top = board.blockTop;
+
+        // 第一层在调用线程的面板副本上评估，游戏的面板（界面正在显示）只在最后设置一次落点
+        TranspositionTable tt = this.tt;
+        Worker worker = workers.get();
+        worker.sync(board, ++decision);
+        int count = candidates.list(board, block);
+        evaluatedCount = candidates.evaluate(worker.board, worker.evaluator, tt, 0, count);
+
+        int best = candidates.best();
+        Block next = nextBlock.get();
+        if (best >= 0 && next != null) {
+            selectBeam();
+            if (pool == null) {
+                // 在同一个副本上逐个固定、撤销第一层的候选
+                for (int j = 0; j < beamSize; j++)
+                    secondPly(worker, j, next);
+            } else {
+                pool.invoke(new SecondPlyTask(0, beamSize, next));
+            }
+            for (int j = 0; j < beamSize; j++)
+                evaluatedCount += beamCounts[j];
+
+            // 得分相同时取第一层序号小的，保证结果与是否并行无关
+            int bestInBeam = -1;
+            for (int j = 0; j < beamSize; j++) {
+                if (beamScores[j] == Double.NEGATIVE_INFINITY)
+                    continue;
+                if (bestInBeam < 0 || beamScores[j] > beamScores[bestInBeam]
+                        || (beamScores[j] == beamScores[bestInBeam] && beam[j] < beam[bestInBeam]))
+                    bestInBeam = j;
+            }
+            // 所有落点都会顶到屏幕外时，退回第一层最好的落点
+            if (bestInBeam >= 0)
+                best = beam[bestInBeam];
+        }
+
+        if (best < 0) {
+            // 没有能放下的位置，保持原样
+            board.setDanglingBlock(left, top, block);
+            return;
+        }
+        board.setDanglingBlock(candidates.xs[best], -Block.SIDE_LEN, candidates.blocks[best]);
+    }
+
+    @Override
+    public int getCandidatesCount() {
+        return evaluatedCount;
+    }
+
+    @Override
+    public void stop() {
+        if (pool != null)
+            pool.shutdownNow();
+    }
+}
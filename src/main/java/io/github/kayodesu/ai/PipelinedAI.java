@@ -0,0 +1,217 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameEngine;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * 流水线 AI：选好当前小方块的落点后，立即在后台线程中为下一个小方块计算落点，
+ * 计算与当前小方块的下落动画同时进行。
+ *
+ * 当前小方块固定后的面板是确定的：后台线程在自己的面板副本上放下当前小方块、消行，
+ * 再让另一个 AI 实例为下一个小方块选落点。下一个小方块出现时，
+ * 如果真实面板的哈希和小方块的类型与预测的一致（没有被玩家的操作改变），直接使用后台的结果；
+ * 否则退回到同步计算。后台还没算完时等它算完，总比从头算快。
+ *
+ * 后台计算时还不知道再下一个小方块，所以假设它分别是7种小方块，各算一次；
+ * 命中时取与真实的再下一个小方块类型相同的结果，与同步计算的结果一样。
+ * 后台 AI 没有查询下一个小方块时（如 {@link ElTetris}），结果与它无关，只算一次。
+ *
+ * 有截止时间、后台 AI 也遵守截止时间时（如 {@link AnytimeAI}、{@link ExpectimaxAI}），
+ * 7次计算分不到足够的时间，每次都比同步计算浅。所以只算一次，把再下一个小方块当作未知，
+ * 这次计算从当前小方块开始下落起就有完整的预算，等到下一个小方块出现时剩下的时间更少。
+ * 代价是少知道一个小方块：命中时的结果与同步计算的不一定相同
+ * （深度为3时两者的成绩相当），预测不中时同步计算仍然使用再下一个小方块。
+ *
+ * @author Yo Ka
+ */
+public class PipelinedAI implements AI {
+
+    private final Board board;
+    private final Supplier<Block> nextBlock;
+
+    // 在游戏的面板上同步计算，预测不中时使用
+    private final AI current;
+
+    // 后台线程使用的面板和 AI。后台任务持有 scratch 的锁，
+    // 被取消的任务可能还在运行，所以准备下一次预测时也要先取得这个锁
+    private final Board scratch;
+    private final AI background;
+    private final ExecutorService executor;
+
+    // 正在计算或已经算完的预测，只在调用 calBestColAndStat 的线程中访问
+    private Future<?> pending;
+    private long predictedHash;
+    private Block predictedBlock;
+
+    // 后台 AI 的 nextBlock 返回的小方块，以及本次计算中它是否被查询过，只在后台线程中访问
+    private Block assumedNext;
+    private boolean queried;
+
+    // 后台按再下一个小方块的类型（BlockType 的序号）计算的结果，resultsCount 为1时与类型无关。
+    // 由 Future 保证可见性
+    private final Block[] resultBlocks = new Block[BlockType.count()];
+    private final int[] resultLefts = new int[BlockType.count()];
+    private final int[] resultTops = new int[BlockType.count()];
+    private int resultsCount;
+
+    // 上一次同步计算的时间预算（纳秒），小于0表示没有截止时间，后台的每次计算使用相同的预算
+    private long budget = -1;
+
+    private long hits = 0, misses = 0;
+    private int evaluatedCount; // 直接使用后台结果时为0，后台评估的不算
+
+    /**
+     * @param nextBlock 获取下一个小方块
+     * @param factory 在给定的面板上创建 AI，第二个参数是该 AI 获取下一个小方块的方法。
+     *                会调用两次：一次用游戏的面板，一次用后台的面板副本
+     */
+    public PipelinedAI(Board board, Supplier<Block> nextBlock, BiFunction<Board, Supplier<Block>, AI> factory) {
+        this.board = board;
+        this.nextBlock = nextBlock;
+        current = factory.apply(board, nextBlock);
+        scratch = new Board(board);
+        background = factory.apply(scratch, () -> {
+            queried = true;
+            return assumedNext;
+        });
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "pipelined AI");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void calBestColAndStat() {
+        budget = -1;
+        decide(0);
+    }
+
+    @Override
+    public void calBestColAndStat(long deadline) {
+        budget = Math.max(deadline - System.nanoTime(), 0);
+        decide(deadline);
+    }
+
+    private void decide(long deadline) {
+        Block block = board.getDanglingBlock();
+        assert block != null;
+
+        int result = -1;
+        boolean interrupted = false;
+        if (pending != null) {
+            try {
+                pending.get(); // 预测不中时也要等后台用完 scratch
+                Block next = nextBlock.get();
+                if (predictedHash == board.getHash() && predictedBlock == block
+                        && (resultsCount == 1 || next != null))
+                    result = resultsCount == 1 ? 0 : next.getType().ordinal();
+            } catch (InterruptedException e) {
+                pending.cancel(true);
+                interrupted = true;
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("background search failed", e.getCause());
+            }
+            pending = null;
+        }
+
+        if (result >= 0) {
+            hits++;
+            evaluatedCount = 0;
+            board.setDanglingBlock(resultLefts[result], resultTops[result], resultBlocks[result]);
+        } else {
+            misses++;
+            if (budget < 0)
+                current.calBestColAndStat();
+            else
+                current.calBestColAndStat(deadline);
+            evaluatedCount = current.getCandidatesCount();
+        }
+
+        if (!interrupted) // 被中断时游戏多半要结束了，不再预测
+            prefetch();
+    }
+
+    /**
+     * 按刚选好的落点在 scratch 上固定当前小方块，然后在后台为下一个小方块选落点，
+     * 再下一个小方块依次假设为每种类型；有截止时间时当作未知，只算一次
+     */
+    private void prefetch() {
+        Block next = nextBlock.get();
+        Block block = board.getDanglingBlock();
+        if (next == null)
+            return;
+
+        synchronized (scratch) {
+            scratch.copyFrom(board);
+            if (!Candidates.place(scratch, block, board.blockLeft))
+                return; // 没有能放下的位置，游戏将要结束
+            scratch.setDanglingBlock(GameEngine.BEGIN_X, GameEngine.BEGIN_Y, next);
+            predictedHash = scratch.getHash();
+        }
+
+        predictedBlock = next;
+        long budget = this.budget;
+        boolean unknownNext = budget >= 0 && background.usesDeadline();
+        pending = executor.submit(() -> {
+            synchronized (scratch) {
+                int left = scratch.blockLeft, top = scratch.blockTop;
+                resultsCount = unknownNext ? 1 : BlockType.count();
+                for (int t = 0; t < resultsCount; t++) {
+                    if (Thread.currentThread().isInterrupted())
+                        return; // 已被取消
+                    assumedNext = unknownNext ? null : BlockType.valueOf(t).getBlock(0);
+                    queried = false;
+                    scratch.setDanglingBlock(left, top, next);
+                    if (budget < 0)
+                        background.calBestColAndStat();
+                    else
+                        background.calBestColAndStat(System.nanoTime() + budget);
+                    resultBlocks[t] = scratch.getDanglingBlock();
+                    resultLefts[t] = scratch.blockLeft;
+                    resultTops[t] = scratch.blockTop;
+                    if (!queried)
+                        resultsCount = 1; // 结果与再下一个小方块无关
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean usesDeadline() {
+        return current.usesDeadline();
+    }
+
+    @Override
+    public int getCandidatesCount() {
+        return evaluatedCount;
+    }
+
+    /**
+     * 直接使用了后台结果的次数
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public void stop() {
+        executor.shutdownNow();
+        current.stop();
+        background.stop();
+    }
+}
@@ -0,0 +1,105 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+import io.github.kayodesu.engine.Board;
+
+import java.util.Arrays;
+
+/**
+ * 预先计算的落点表：每种小方块在给定列数的面板上所有合法的 (形态, 列)。
+ *
+ * 只列出不越界的列；占据的格子（去掉4x4格子中的空白后）相同的形态只保留一个，
+ * 比如 S、Z、I 如果用4个形态表示，只会留下2个。
+ * 顺序与原来的逐个形态、逐列枚举相同：从给定的形态开始，每个形态从左到右，
+ * 所以每个起始形态各有一张表。表是不可变的，所有线程共享。
+ *
+ * @author Yo Ka
+ */
+final class Placements {
+
+    // 按列数缓存，下标为列数
+    private static final Placements[] CACHE = new Placements[Board.MAX_COLUMNS_COUNT + 1];
+
+    // [类型][起始形态]
+    private final Block[][][] blocks;
+    private final int[][][] xs;
+
+    private Placements(int columnsCount) {
+        blocks = new Block[BlockType.count()][][];
+        xs = new int[BlockType.count()][][];
+        for (int t = 0; t < BlockType.count(); t++) {
+            BlockType type = BlockType.valueOf(t);
+            blocks[t] = new Block[type.getStatsCount()][];
+            xs[t] = new int[type.getStatsCount()][];
+            for (int s = 0; s < type.getStatsCount(); s++)
+                list(type.getBlock(s), columnsCount, t, s);
+        }
+    }
+
+    private void list(Block first, int columnsCount, int t, int s) {
+        int max = first.getStatsCount() * columnsCount;
+        Block[] bs = new Block[max];
+        int[] ps = new int[max];
+        int count = 0;
+
+        Block block = first;
+        for (int i = first.getStatsCount(); i > 0; i--, block = block.next()) {
+            if (isDuplicate(first, block))
+                continue;
+            int maxX = columnsCount - 1 - block.getRight();
+            for (int x = -block.getLeft(); x <= maxX; x++) {
+                bs[count] = block;
+                ps[count] = x;
+                count++;
+            }
+        }
+        blocks[t][s] = Arrays.copyOf(bs, count);
+        xs[t][s] = Arrays.copyOf(ps, count);
+    }
+
+    /**
+     * 从 first 开始枚举到 block 之前，是否已经有占据的格子与 block 相同的形态
+     */
+    private static boolean isDuplicate(Block first, Block block) {
+        for (Block b = first; b != block; b = b.next()) {
+            if (sameFootprint(b, block))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean sameFootprint(Block a, Block b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight())
+            return false;
+        for (int y = 0; y < a.getHeight(); y++) {
+            if ((a.getRowMasks()[a.getTop() + y] >>> a.getLeft()) != (b.getRowMasks()[b.getTop() + y] >>> b.getLeft()))
+                return false;
+        }
+        return true;
+    }
+
+    static Placements of(int columnsCount) {
+        Placements placements = CACHE[columnsCount];
+        if (placements == null) {
+            // 多个线程同时创建时结果相同，留下哪个都可以
+            placements = new Placements(columnsCount);
+            CACHE[columnsCount] = placements;
+        }
+        return placements;
+    }
+
+    /**
+     * 从 block 的形态开始的所有落点的形态，不要修改
+     */
+    Block[] blocksOf(Block block) {
+        return blocks[block.getType().ordinal()][block.getStat()];
+    }
+
+    /**
+     * 与 {@link #blocksOf(Block)} 对应的列，不要修改
+     */
+    int[] xsOf(Block block) {
+        return xs[block.getType().ordinal()][block.getStat()];
+    }
+}
@@ -0,0 +1,213 @@
+package io.github.kayodesu.ai;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 置换表：按64位键（面板的 Zobrist 哈希异或小方块或落点的键）缓存得分。
+ *
+ * 容量固定，开放寻址，每个键只在自己的桶（BUCKET_SIZE 个相邻的槽）里查找，
+ * 桶满时按 {@link Eviction} 选择被替换的槽。
+ *
+ * 多个搜索线程可以共享同一张表，读写都不加锁：
+ * 每个槽存 (key ^ data, data)，读到的两个值异或后与键不符就当作未命中，
+ * 这样另一个线程写了一半的槽不会被误用。
+ *
+ * 缓存的得分与评估函数有关，修改权重后需要 {@link #clear()}。
+ *
+ * @author Yo Ka
+ */
+public class TranspositionTable {
+
+    /**
+     * 桶满时的替换策略
+     */
+    public enum Eviction {
+        /**
+         * 替换桶中深度最小的槽，深层搜索的结果保留得更久
+         */
+        REPLACE_BY_DEPTH,
+        /**
+         * 时钟算法：命中时置访问位，替换时从桶的指针开始清除访问位，替换第一个访问位为0的槽
+         */
+        CLOCK,
+    }
+
+    public static final int BUCKET_SIZE = 4;
+
+    private final long[] checks;   // key ^ data
+    private final long[] data;     // 得分的 double 位
+    private final byte[] depths;   // 深度+1，0表示空槽
+    private final boolean[] referenced;
+    private final byte[] hands;    // 每个桶的时钟指针
+    private final int bucketMask;
+    private final Eviction eviction;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity 最多缓存的条目数，向上取为 BUCKET_SIZE 乘以2的幂
+     */
+    public TranspositionTable(int capacity, Eviction eviction) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException("capacity = " + capacity);
+
+        int buckets = Integer.highestOneBit(Math.max(1, (capacity + BUCKET_SIZE - 1) / BUCKET_SIZE) * 2 - 1);
+        int slots = buckets * BUCKET_SIZE;
+        checks = new long[slots];
+        data = new long[slots];
+        depths = new byte[slots];
+        referenced = new boolean[slots];
+        hands = new byte[buckets];
+        bucketMask = buckets - 1;
+        this.eviction = eviction;
+    }
+
+    public int getCapacity() {
+        return checks.length;
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    private int bucketOf(long key) {
+        // 键已经是混合过的随机数，取高位即可
+        return (int) (key >>> 32) & bucketMask;
+    }
+
+    /**
+     * 查找深度不小于 minDepth 的得分
+     * @return 得分，未命中时返回 NaN
+     */
+    public double probe(long key, int minDepth) {
+        int base = bucketOf(key) * BUCKET_SIZE;
+        for (int i = base; i < base + BUCKET_SIZE; i++) {
+            long d = data[i];
+            if ((checks[i] ^ d) == key) {
+                int depth = depths[i] - 1;
+                if (depth >= minDepth) {
+                    if (eviction == Eviction.CLOCK)
+                        referenced[i] = true;
+                    hits.increment();
+                    return Double.longBitsToDouble(d);
+                }
+                break;
+            }
+        }
+        misses.increment();
+        return Double.NaN;
+    }
+
+    /**
+     * 缓存得分。键已存在时，只有深度不小于原来的才覆盖。
+     * @param depth 得到该得分的搜索深度，0 到 126
+     * @param score 得分，不能是 NaN
+     */
+    public void store(long key, int depth, double score) {
+        assert depth >= 0 && depth < Byte.MAX_VALUE;
+        assert !Double.isNaN(score);
+
+        int bucket = bucketOf(key);
+        int base = bucket * BUCKET_SIZE;
+        int victim = -1;
+        for (int i = base; i < base + BUCKET_SIZE; i++) {
+            if (depths[i] == 0) {
+                if (victim < 0)
+                    victim = i;
+            } else if ((checks[i] ^ data[i]) == key) {
+                if (depth < depths[i] - 1)
+                    return;
+                victim = i;
+                break;
+            }
+        }
+
+        if (victim < 0) {
+            victim = eviction == Eviction.CLOCK ? clockVictim(bucket) : shallowest(base);
+            evictions.increment();
+        }
+
+        long d = Double.doubleToRawLongBits(score);
+        data[victim] = d;
+        checks[victim] = key ^ d;
+        depths[victim] = (byte) (depth + 1);
+        referenced[victim] = false;
+        stores.increment();
+    }
+
+    private int shallowest(int base) {
+        int victim = base;
+        for (int i = base + 1; i < base + BUCKET_SIZE; i++) {
+            if (depths[i] < depths[victim])
+                victim = i;
+        }
+        return victim;
+    }
+
+    private int clockVictim(int bucket) {
+        int base = bucket * BUCKET_SIZE;
+        // 最多转两圈：第一圈把访问位都清掉，第二圈一定能找到
+        int hand = hands[bucket] & (BUCKET_SIZE - 1);
+        for (int n = 0; n < 2 * BUCKET_SIZE; n++) {
+            int i = base + hand;
+            hand = (hand + 1) & (BUCKET_SIZE - 1);
+            if (referenced[i]) {
+                referenced[i] = false;
+            } else {
+                hands[bucket] = (byte) hand;
+                return i;
+            }
+        }
+        hands[bucket] = (byte) hand;
+        return base + hand;
+    }
+
+    /**
+     * 清空所有条目和计数，不能与 probe、store 同时调用
+     */
+    public void clear() {
+        for (int i = 0; i < checks.length; i++) {
+            checks[i] = data[i] = 0;
+            depths[i] = 0;
+            referenced[i] = false;
+        }
+        resetCounters();
+    }
+
+    public void resetCounters() {
+        hits.reset();
+        misses.reset();
+        stores.reset();
+        evictions.reset();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getStores() {
+        return stores.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long h = getHits(), total = h + getMisses();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TranspositionTable[capacity=%d, %s, hits=%d, misses=%d, hit rate=%.1f%%, evictions=%d]",
+                getCapacity(), eviction, getHits(), getMisses(), getHitRate() * 100, getEvictions());
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.engine.Board;
+
+/**
+ * 搜索线程私有的面板副本、评估函数和候选缓冲区
+ *
+ * @author Yo Ka
+ */
+class Worker {
+    final Board board;
+    final Evaluator evaluator;
+    final Candidates candidates;
+
+    // board 是第几次决策时的游戏面板，-1表示还没有复制过
+    private long decision = -1;
+
+    Worker(Board board, Evaluator evaluator) {
+        this.board = new Board(board);
+        this.evaluator = evaluator.copy();
+        this.candidates = new Candidates(board.getColumnsCount());
+    }
+
+    /**
+     * 第 decision 次决策时第一次使用这个线程的副本时，从游戏的面板 game 复制。
+     * 同一次决策中评估和搜索都会还原副本，之后的任务不需要再复制
+     */
+    void sync(Board game, long decision) {
+        if (this.decision != decision) {
+            board.copyFrom(game);
+            this.decision = decision;
+        }
+    }
+}
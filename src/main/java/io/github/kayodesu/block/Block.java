@@ -1,89 +1,132 @@
 package io.github.kayodesu.block;
 
-import javafx.scene.paint.Color;
-
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
-
 /**
+ * 小方块的一种形态。
+ * 每种形态只有一个共享的实例（见 {@link BlockType}），实例不可变，
+ * 变形时换成另一个形态的实例。
+ *
  * @author Yo Ka
  */
-public abstract class Block {
-    protected int statsCount;
+public final class Block {
+
+    public static final int SIDE_LEN = 4;
+
+    private final BlockType type;
 
     // 当前block的形态
-    protected int stat;
+    private final int stat;
 
-    public static final int SIDE_LEN = 4;
+    // 颜色只是一个编号，由界面决定具体画成什么颜色
+    public final int color;
+
+    // 二维表示每个方块最大宽高为4, data[x][y]
+    private final boolean[][] data;
+
+    // 每一行的位掩码，第x位为1表示该行第x列有小方块
+    private final int[] rowMasks = new int[SIDE_LEN];
+
+    // 小方块在4x4格子中占据的范围（含）
+    private final int left, right, top, bottom;
 
-    private static final Color[] colors = {
-            Color.BLUE, Color.DEEPPINK, Color.RED,
-            Color.GREEN, Color.PURPLE
-    };
-    public Color color;
-    
-    // 第一维表示没个方块最多有4种状态，二三维表示每个方块最大宽高为4
-    protected boolean[][][] data = new boolean[4][SIDE_LEN][SIDE_LEN];
-    
-    public Block(int statsCount) {
-        this.statsCount = statsCount;
-        stat = random.nextInt(statsCount);
-        color = colors[random.nextInt(colors.length)];
-    }
-    
+    // 每一列最下面的小方块的y坐标，该列没有小方块时为-1
+    private final int[] bottoms = new int[SIDE_LEN];
+
+    Block(BlockType type, int stat, boolean[][] data) {
+        this.type = type;
+        this.stat = stat;
+        this.color = type.ordinal();
+        this.data = data;
+
+        int left = SIDE_LEN, right = -1, top = SIDE_LEN, bottom = -1;
+        for (int x = 0; x < SIDE_LEN; x++) {
+            bottoms[x] = -1;
+            for (int y = 0; y < SIDE_LEN; y++) {
+                if (data[x][y]) {
+                    rowMasks[y] |= 1 << x;
+                    bottoms[x] = y;
+                    left = Math.min(left, x);
+                    right = Math.max(right, x);
+                    top = Math.min(top, y);
+                    bottom = Math.max(bottom, y);
+                }
+            }
+        }
+        this.left = left;
+        this.right = right;
+        this.top = top;
+        this.bottom = bottom;
+    }
+
+    public BlockType getType() {
+        return type;
+    }
+
+    /**
+     * 不要修改返回的数组，它被所有同形态的小方块共享
+     */
     public boolean[][] getData() {
-        return data[stat];
+        return data;
+    }
+
+    /**
+     * 按行表示的位掩码，供位棋盘做冲突检测和合并使用。
+     * 不要修改返回的数组。
+     */
+    public int[] getRowMasks() {
+        return rowMasks;
+    }
+
+    /**
+     * 第x列最下面的小方块在4x4格子中的y坐标，该列没有小方块时为-1。
+     */
+    public int getBottom(int x) {
+        return bottoms[x];
     }
 
     public int getStatsCount() {
-        return statsCount;
+        return type.getStatsCount();
     }
 
     public int getStat() {
         return stat;
     }
 
-    public abstract int getHeight();
-    
-    public abstract void switchToPrevStat(); // 转换到前一个状态
-    public abstract void switchToNextStat(); // 转换到下一个状态
+    public int getWidth() {
+        return right - left + 1;
+    }
 
-    public void switchToStat(int newStat) {
-        assert newStat >= 0 && newStat < statsCount;
-        while (stat != newStat) {
-            switchToNextStat();
-        }
+    public int getHeight() {
+        return bottom - top + 1;
     }
 
-    private static Random random;
-    private static List<Constructor<?>> constructors = new ArrayList<>();
-    
-    static {
-        random = new Random();
-        try {
-            constructors.add(BlockI.class.getConstructor());
-            constructors.add(BlockJ.class.getConstructor());
-            constructors.add(BlockL.class.getConstructor());
-            constructors.add(BlockO.class.getConstructor());
-            constructors.add(BlockS.class.getConstructor());
-            constructors.add(BlockT.class.getConstructor());
-            constructors.add(BlockZ.class.getConstructor());
-        } catch (NoSuchMethodException e) {
-            e.printStackTrace();
-        }
+    public int getLeft() {
+        return left;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    // 前一个形态
+    public Block prev() {
+        return type.getBlock(stat == 0 ? getStatsCount() - 1 : stat - 1);
+    }
+
+    // 下一个形态
+    public Block next() {
+        return type.getBlock(stat + 1 == getStatsCount() ? 0 : stat + 1);
+    }
+
+    public Block withStat(int newStat) {
+        assert newStat >= 0 && newStat < getStatsCount();
+        return type.getBlock(newStat);
     }
-    
-    public static Block getRandomBlock() {
-        var constructor = constructors.get(random.nextInt(constructors.size()));
-        Block block = null;
-        try {
-            block = (Block) constructor.newInstance();
-        } catch (InvocationTargetException | IllegalAccessException | InstantiationException e) {
-            e.printStackTrace();
-        }
-        return block;
-    }    
 }
@@ -0,0 +1,153 @@
+package io.github.kayodesu.block;
+
+/**
+ * 七种小方块及其各个形态的预计算表。
+ * 每种形态只有一个共享的不可变 {@link Block} 实例。
+ *
+ * 形态图中每个字符串是4x4格子的一行，'o'表示有小方块，
+ * 形态按 {@link Block#next()} 的顺序排列。
+ *
+ * @author Yo Ka
+ */
+public enum BlockType {
+
+    I(new String[][] {
+            {".o..",
+             ".o..",
+             ".o..",
+             ".o.."},
+
+            {"....",
+             "....",
+             "....",
+             "oooo"},
+    }),
+
+    J(new String[][] {
+            {"....",
+             "..o.",
+             "..o.",
+             ".oo."},
+
+            {"....",
+             "....",
+             "o...",
+             "ooo."},
+
+            {"....",
+             ".oo.",
+             ".o..",
+             ".o.."},
+
+            {"....",
+             "....",
+             "ooo.",
+             "..o."},
+    }),
+
+    L(new String[][] {
+            {"....",
+             ".o..",
+             ".o..",
+             ".oo."},
+
+            {"....",
+             "....",
+             "ooo.",
+             "o..."},
+
+            {"....",
+             ".oo.",
+             "..o.",
+             "..o."},
+
+            {"....",
+             "....",
+             "..o.",
+             "ooo."},
+    }),
+
+    O(new String[][] {
+            {"....",
+             "....",
+             ".oo.",
+             ".oo."},
+    }),
+
+    S(new String[][] {
+            {"....",
+             ".o..",
+             ".oo.",
+             "..o."},
+
+            {"....",
+             "....",
+             ".oo.",
+             "oo.."},
+    }),
+
+    T(new String[][] {
+            {"....",
+             "....",
+             ".o..",
+             "ooo."},
+
+            {"....",
+             ".o..",
+             ".oo.",
+             ".o.."},
+
+            {"....",
+             "....",
+             "ooo.",
+             ".o.."},
+
+            {"....",
+             "..o.",
+             ".oo.",
+             "..o."},
+    }),
+
+    Z(new String[][] {
+            {"....",
+             "..o.",
+             ".oo.",
+             ".o.."},
+
+            {"....",
+             "....",
+             ".oo.",
+             "..oo"},
+    });
+
+    private static final BlockType[] VALUES = values();
+
+    private final Block[] stats;
+
+    BlockType(String[][] pictures) {
+        stats = new Block[pictures.length];
+        for (int s = 0; s < pictures.length; s++) {
+            boolean[][] data = new boolean[Block.SIDE_LEN][Block.SIDE_LEN];
+            for (int y = 0; y < Block.SIDE_LEN; y++)
+                for (int x = 0; x < Block.SIDE_LEN; x++)
+                    data[x][y] = pictures[s][y].charAt(x) == 'o';
+            stats[s] = new Block(this, s, data);
+        }
+    }
+
+    public static BlockType valueOf(int id) {
+        return VALUES[id];
+    }
+
+    public static int count() {
+        return VALUES.length;
+    }
+
+    public int getStatsCount() {
+        return stats.length;
+    }
+
+    public Block getBlock(int stat) {
+        return stats[stat];
+    }
+}
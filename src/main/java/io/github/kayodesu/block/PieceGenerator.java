@@ -0,0 +1,110 @@
+package io.github.kayodesu.block;
+
+import java.util.Random;
+
+/**
+ * 出块序列的生成器。每个生成器有自己的随机数生成器，种子相同则序列相同。
+ * 生成器不是线程安全的，每局游戏使用自己的生成器；
+ * 需要在多局之间共享同一个序列时，先用 {@link PieceSequence#generate(PieceGenerator, int)} 生成。
+ *
+ * @author Yo Ka
+ */
+public interface PieceGenerator {
+
+    /**
+     * 下一个小方块的类型
+     */
+    BlockType next();
+
+    /**
+     * 生成方式
+     */
+    enum Mode {
+        /**
+         * 每次独立均匀地随机选择
+         */
+        UNIFORM {
+            @Override
+            public PieceGenerator create(long seed) {
+                return uniform(seed);
+            }
+        },
+        /**
+         * 7-bag：七种小方块打乱后依次出，出完再打乱
+         */
+        SEVEN_BAG {
+            @Override
+            public PieceGenerator create(long seed) {
+                return sevenBag(seed);
+            }
+        },
+        /**
+         * 记住最近出的4个小方块，最多重抽4次以避开它们（TGM 的方式）
+         */
+        HISTORY {
+            @Override
+            public PieceGenerator create(long seed) {
+                return history(seed);
+            }
+        };
+
+        public abstract PieceGenerator create(long seed);
+    }
+
+    static PieceGenerator uniform(long seed) {
+        Random random = new Random(seed);
+        return () -> BlockType.valueOf(random.nextInt(BlockType.count()));
+    }
+
+    static PieceGenerator sevenBag(long seed) {
+        return new PieceGenerator() {
+            private final Random random = new Random(seed);
+            private final BlockType[] bag = BlockType.values();
+            private int next = bag.length;
+
+            @Override
+            public BlockType next() {
+                if (next == bag.length) {
+                    // Fisher-Yates
+                    for (int i = bag.length - 1; i > 0; i--) {
+                        int j = random.nextInt(i + 1);
+                        BlockType t = bag[i];
+                        bag[i] = bag[j];
+                        bag[j] = t;
+                    }
+                    next = 0;
+                }
+                return bag[next++];
+            }
+        };
+    }
+
+    static PieceGenerator history(long seed) {
+        return new PieceGenerator() {
+            private static final int ROLLS = 4;
+            private final Random random = new Random(seed);
+            // 初始的历史是 Z Z S S，第一个小方块不会是这两种
+            private final BlockType[] history = { BlockType.Z, BlockType.Z, BlockType.S, BlockType.S };
+            private int oldest = 0;
+
+            private boolean inHistory(BlockType type) {
+                for (BlockType t : history) {
+                    if (t == type)
+                        return true;
+                }
+                return false;
+            }
+
+            @Override
+            public BlockType next() {
+                BlockType type = BlockType.valueOf(random.nextInt(BlockType.count()));
+                for (int i = 1; i < ROLLS && inHistory(type); i++)
+                    type = BlockType.valueOf(random.nextInt(BlockType.count()));
+
+                history[oldest] = type;
+                oldest = (oldest + 1) % history.length;
+                return type;
+            }
+        };
+    }
+}
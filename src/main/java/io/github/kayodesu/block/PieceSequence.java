@@ -0,0 +1,53 @@
+package io.github.kayodesu.block;
+
+/**
+ * 预先生成的出块序列，类型的序号存在一个 byte 数组中。
+ * 生成后不可变，可以在多个线程的多局游戏之间只读共享，
+ * 每局游戏通过 {@link #cursor()} 得到自己的读取位置，比较不同的 AI 时保证出块完全相同。
+ *
+ * @author Yo Ka
+ */
+public final class PieceSequence {
+
+    private final byte[] types;
+
+    private PieceSequence(byte[] types) {
+        this.types = types;
+    }
+
+    /**
+     * 从 generator 中取 length 个小方块
+     */
+    public static PieceSequence generate(PieceGenerator generator, int length) {
+        if (length <= 0)
+            throw new IllegalArgumentException("length = " + length);
+        byte[] types = new byte[length];
+        for (int i = 0; i < length; i++)
+            types[i] = (byte) generator.next().ordinal();
+        return new PieceSequence(types);
+    }
+
+    public int length() {
+        return types.length;
+    }
+
+    public BlockType get(int i) {
+        return BlockType.valueOf(types[i]);
+    }
+
+    /**
+     * 从头开始读取序列的生成器，读到末尾后从头循环
+     */
+    public PieceGenerator cursor() {
+        return new PieceGenerator() {
+            private int next = 0;
+
+            @Override
+            public BlockType next() {
+                BlockType type = BlockType.valueOf(types[next]);
+                next = next + 1 == types.length ? 0 : next + 1;
+                return type;
+            }
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package io.github.kayodesu.engine;
+
+/**
+ * 控制小方块运动的所有动作
+ *
+ * @author Yo Ka
+ */
+public enum Action {
+    LEFT, RIGHT, DOWN, TRANSFORM, FAST_DOWN
+}
@@ -0,0 +1,822 @@
+package io.github.kayodesu.engine;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+
+import java.util.Arrays;
+
+/**
+ * 位棋盘。
+ * 每一行用一个int表示，第x位为1表示第x列有已经固定的小方块，零点在左上角。
+ * 冲突检测、合并、消行都是按行的位运算。
+ *
+ * @author Yo Ka
+ */
+public class Board {
+
+    public static final int MAX_COLUMNS_COUNT = Integer.SIZE;
+
+    public enum ConflictType {
+        NONE_CONFLICT,  // 无冲突
+        CONFLICT,       // 冲突
+        OUT_OF_LEFT_BOUND,  // 左越界
+        OUT_OF_RIGHT_BOUND,
+        OUT_OF_BOTTOM_BOUND,
+    }
+
+    private final int columnsCount, rowsCount;
+    private final int fullRow; // 满行的掩码
+    private final int[] rows;
+
+    // 最近一次合并时被消除的行（消除前的行号，自下而上）。
+    // 小方块最多消4行，但 fill 出来的满行会一起消除，所以按行数分配
+    private final int[] clearedRows;
+    private int clearedRowsCount;
+
+    private boolean full = false;
+
+    private Block danglingBlock;
+    public int blockLeft, blockTop; // danglingBlock 的坐标
+
+    // pasteDanglingBlock 时贴上去的行，unPasteDanglingBlock 时按此还原
+    private final int[] pastedMasks = new int[Block.SIDE_LEN];
+    private int pastedTop;
+    private boolean pasted = false;
+
+    /*
+     * 以下统计随着贴上、合并、消行增量更新，每次只处理小方块覆盖到的行和列
+     */
+    private final int[] heights;          // 每一列的高度，没有小方块的列高度为0
+    private final int[] wells;            // 每一列的 well sums
+    private final int[] rowTransitions;   // 每一行的行转换数（左右边界视为filled cell）
+    private int aggregateHeight;          // 所有列的高度之和
+    private int filledCount;              // 小方块的总数
+    private int totalRowTransitions;
+    private int totalColumnTransitions;   // 上边界视为empty cell，下边界视为filled cell
+    private int totalWellSums;
+    private int fullRowsCount;
+    private long hash;                    // 已固定格子的 Zobrist 哈希
+
+    // pasteDanglingBlock 前的统计，unPasteDanglingBlock 时按此还原
+    private final int[] savedHeights = new int[MAX_COLUMNS_COUNT];
+    private final int[] savedWells = new int[MAX_COLUMNS_COUNT];
+    private final int[] savedRowTransitions = new int[Block.SIDE_LEN];
+    private int savedAggregateHeight, savedFilledCount;
+    private int savedTotalRowTransitions, savedTotalColumnTransitions, savedTotalWellSums, savedFullRowsCount;
+    private long savedHash;
+
+    /*
+     * 撤销栈，见 mergeUndoable。每一帧只记下这次合并会改变的行，以及每一列的统计和其余的标量，
+     * 依次压入 undoInts，帧的大小在最后压入；哈希和 danglingBlock 单独压栈
+     */
+    private int[] undoInts = new int[0];
+    private int undoIntsTop;
+    private long[] undoHashes = new long[0];
+    private Block[] undoBlocks = new Block[0];
+    private int undoDepth;
+
+    public Board(int columnsCount, int rowsCount) {
+        if (columnsCount <= 0 || columnsCount > MAX_COLUMNS_COUNT)
+            throw new IllegalArgumentException("columnsCount = " + columnsCount);
+        if (rowsCount <= 0)
+            throw new IllegalArgumentException("rowsCount = " + rowsCount);
+
+        this.columnsCount = columnsCount;
+        this.rowsCount = rowsCount;
+        fullRow = columnsCount == MAX_COLUMNS_COUNT ? -1 : (1 << columnsCount) - 1;
+        rows = new int[rowsCount];
+        clearedRows = new int[rowsCount];
+        heights = new int[columnsCount];
+        wells = new int[columnsCount];
+        rowTransitions = new int[rowsCount];
+        recomputeStats();
+    }
+
+    /**
+     * 复制面板上已经固定的小方块（不包括 danglingBlock），用于搜索时的私有副本
+     */
+    public Board(Board other) {
+        this(other.columnsCount, other.rowsCount);
+        copyFrom(other);
+    }
+
+    /**
+     * 将 other 面板上已经固定的小方块复制过来，两个面板的大小必须相同
+     */
+    public void copyFrom(Board other) {
+        assert other.columnsCount == columnsCount && other.rowsCount == rowsCount;
+        assert !other.pasted;
+
+        System.arraycopy(other.rows, 0, rows, 0, rowsCount);
+        System.arraycopy(other.heights, 0, heights, 0, columnsCount);
+        System.arraycopy(other.wells, 0, wells, 0, columnsCount);
+        System.arraycopy(other.rowTransitions, 0, rowTransitions, 0, rowsCount);
+        aggregateHeight = other.aggregateHeight;
+        filledCount = other.filledCount;
+        totalRowTransitions = other.totalRowTransitions;
+        totalColumnTransitions = other.totalColumnTransitions;
+        totalWellSums = other.totalWellSums;
+        fullRowsCount = other.fullRowsCount;
+        hash = other.hash;
+        full = other.full;
+        pasted = false;
+        danglingBlock = null;
+        undoIntsTop = undoDepth = 0;
+    }
+
+    public int getColumnsCount() {
+        return columnsCount;
+    }
+
+    public int getRowsCount() {
+        return rowsCount;
+    }
+
+    public int getFullRow() {
+        return fullRow;
+    }
+
+    /**
+     * 第y行的位掩码
+     */
+    public int getRow(int y) {
+        return rows[y];
+    }
+
+    public boolean isFilled(int x, int y) {
+        return (rows[y] & (1 << x)) != 0;
+    }
+
+    /**
+     * 第y行小方块的个数
+     */
+    public int getRowFill(int y) {
+        return Integer.bitCount(rows[y]);
+    }
+
+    public void fill(int x, int y) {
+        rows[y] |= 1 << x;
+        recomputeStats();
+        undoIntsTop = undoDepth = 0;
+    }
+
+    /**
+     * 清空面板
+     */
+    public void clear() {
+        for (int y = 0; y < rowsCount; y++)
+            rows[y] = 0;
+        recomputeStats();
+        full = false;
+        pasted = false;
+        danglingBlock = null;
+        undoIntsTop = undoDepth = 0;
+    }
+
+    public ConflictType setDanglingBlock(int left, int top, Block block) {
+        ConflictType type = testBoundAndConflict(left, top, block);
+        if (type == ConflictType.NONE_CONFLICT) {
+            this.blockLeft = left;
+            this.blockTop = top;
+            danglingBlock = block;
+        }
+        return type;
+    }
+
+    public Block getDanglingBlock() {
+        return danglingBlock;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public boolean moveLeft() {
+        assert danglingBlock != null;
+
+        if (testBoundAndConflict(blockLeft - 1, blockTop, danglingBlock) == ConflictType.NONE_CONFLICT) {
+            blockLeft--;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean moveRight() {
+        assert danglingBlock != null;
+
+        if (testBoundAndConflict(blockLeft + 1, blockTop, danglingBlock) == ConflictType.NONE_CONFLICT) {
+            blockLeft++;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean transform() {
+        assert danglingBlock != null;
+
+        Block next = danglingBlock.next();
+        if (testBoundAndConflict(blockLeft, blockTop, next) == ConflictType.NONE_CONFLICT) {
+            danglingBlock = next;
+            return true;
+        }
+        return false;
+    }
+
+    public boolean moveDown() {
+        assert danglingBlock != null;
+
+        if (testBoundAndConflict(blockLeft, blockTop + 1, danglingBlock) == ConflictType.NONE_CONFLICT) {
+            blockTop++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * block 从第 left 列的顶部直接落下时停住的 y 坐标。
+     * 由每列的高度和小方块每列最下面的格子直接算出，只需 O(小方块的宽度)
+     */
+    public int dropRow(Block block, int left) {
+        int top = rowsCount;
+        for (int x = block.getLeft(); x <= block.getRight(); x++) {
+            int bottom = block.getBottom(x);
+            if (bottom >= 0)
+                top = Math.min(top, rowsCount - heights[left + x] - 1 - bottom);
+        }
+        return top;
+    }
+
+    /**
+     * 同 {@link #dropRow(Block, int)}，小方块由类型和形态给出
+     */
+    public int dropRow(BlockType type, int stat, int left) {
+        return dropRow(type.getBlock(stat), left);
+    }
+
+    /**
+     * danglingBlock 从当前位置直接落下时停住的 y 坐标
+     */
+    public int dropRow() {
+        assert danglingBlock != null;
+
+        int top = dropRow(danglingBlock, blockLeft);
+        if (top >= blockTop)
+            return top;
+
+        // 小方块已经在某列最高的格子之下（从悬空的格子下面移进去的），只能逐行向下找
+        top = blockTop;
+        while (testBoundAndConflict(blockLeft, top + 1, danglingBlock) == ConflictType.NONE_CONFLICT)
+            top++;
+        return top;
+    }
+
+    /**
+     * danglingBlock 直接落到底部（不固定）
+     * @return 下落的行数
+     */
+    public int drop() {
+        int top = dropRow();
+        int rows = top - blockTop;
+        blockTop = top;
+        return rows;
+    }
+
+    /**
+     * 将小方块一行的掩码平移到面板的第left列
+     */
+    private static int shift(int mask, int left) {
+        return left >= 0 ? mask << left : mask >>> -left;
+    }
+
+    /**
+     * 消除满行，未满的行原地下移，不分配内存。
+     * 只检查 [first, last] 范围内的行（刚合并的小方块所在的行），
+     * 只下移最下面的满行与最高的小方块之间的行。
+     * @return 移除的行数
+     */
+    private int removeFullLines(int first, int last) {
+        clearedRowsCount = 0;
+        if (fullRowsCount == 0)
+            return 0;
+
+        int minCleared = rowsCount, maxCleared = -1, found = 0;
+        for (int y = last; y >= first; y--) {
+            if (rows[y] == fullRow) {
+                minCleared = y;
+                maxCleared = Math.max(maxCleared, y);
+                found++;
+            }
+        }
+        if (found != fullRowsCount) {
+            // 满行不是由小方块产生的（比如 fill），检查所有的行
+            return first == 0 && last == rowsCount - 1 ? 0 : removeFullLines(0, rowsCount - 1);
+        }
+
+        // 最高的小方块所在的行，其上都是空行，不需要移动
+        int maxHeight = 0;
+        for (int x = 0; x < columnsCount; x++)
+            maxHeight = Math.max(maxHeight, heights[x]);
+        int top = rowsCount - maxHeight;
+
+        // 被消除的行之间（含上下相邻的行）的列转换在消行后重新计算，其余的不变
+        totalColumnTransitions -= columnTransitionsBetween(minCleared, maxCleared + 1);
+        hash ^= hashOf(top, maxCleared + 1); // top 到 maxCleared 之间的行都下移了
+
+        int j = maxCleared;
+        for (int y = maxCleared; y >= top; y--) {
+            if (rows[y] == fullRow) {
+                clearedRows[clearedRowsCount++] = y;
+            } else {
+                rowTransitions[j] = rowTransitions[y];
+                rows[j--] = rows[y];
+            }
+        }
+        while (j >= top) {
+            rowTransitions[j] = rowTransitionsOf(0);
+            rows[j--] = 0;
+        }
+
+        int k = clearedRowsCount;
+        totalColumnTransitions += columnTransitionsBetween(minCleared + k, maxCleared + 1);
+        hash ^= hashOf(top, maxCleared + 1);
+        totalRowTransitions += k * rowTransitionsOf(0); // 满行的行转换数为0，顶部补的空行每行2个
+        filledCount -= k * columnsCount;
+        fullRowsCount -= k;
+
+        // 满行里每一列都有小方块，列顶不在被消除的行上的列正好降低k；
+        // 列顶在最上面的被消除的行上的列，需要往下找新的列顶
+        int exposed = 0;
+        for (int x = 0; x < columnsCount; x++) {
+            int height = heights[x] - k;
+            if (heights[x] == rowsCount - minCleared) {
+                exposed |= 1 << x;
+                int bit = 1 << x;
+                int y = minCleared + k;
+                while (y < rowsCount && (rows[y] & bit) == 0)
+                    y++;
+                height = rowsCount - y;
+            }
+            aggregateHeight += height - heights[x];
+            heights[x] = height;
+        }
+
+        // 井都在列顶之上，只有列顶变了的列及其相邻的列需要重新计算
+        for (int m = (exposed | (exposed << 1) | (exposed >>> 1)) & fullRow; m != 0; m &= m - 1) {
+            int x = Integer.numberOfTrailingZeros(m);
+            totalWellSums -= wells[x];
+            wells[x] = wellSumsOf(x);
+            totalWellSums += wells[x];
+        }
+
+        return k;
+    }
+
+    /**
+     * 最近一次 merge 时被消除的行号（消除前的行号，自下而上），
+     * 有效长度为 merge 的返回值
+     */
+    public int[] getClearedRows() {
+        return clearedRows;
+    }
+
+    /**
+     * 将 danglingBlock 固定到面板上，并消除满行
+     * @return 移除的行数
+     */
+    public int merge() {
+        assert danglingBlock != null;
+        assert !pasted;
+        assert testBoundAndConflict(blockLeft, blockTop, danglingBlock) == ConflictType.NONE_CONFLICT;
+
+        int[] masks = danglingBlock.getRowMasks();
+        int[] cells = pastedMasks;
+        for (int y = 0; y < Block.SIDE_LEN; y++) {
+            cells[y] = 0;
+            if (masks[y] != 0) {
+                // 上方屏幕外图形的不合并
+                if (blockTop + y < 0) {
+                    full = true;
+                } else {
+                    cells[y] = shift(masks[y], blockLeft);
+                }
+            }
+        }
+        addCells(blockTop, cells);
+
+        int removedLinesCount = removeFullLines(Math.max(blockTop, 0), Math.min(blockTop + Block.SIDE_LEN, rowsCount) - 1);
+        if (removedLinesCount > 0 && blockTop < 0) {
+            blockTop += removedLinesCount; // 下移 removedLinesCount 行
+            if (blockTop > 0) {
+                full = false;
+
+                for (int y = 0; y < Block.SIDE_LEN; y++)
+                    cells[y] = y < removedLinesCount ? shift(masks[y], blockLeft) & ~rows[blockTop + y] : 0;
+                addCells(blockTop, cells);
+            }
+        }
+
+        danglingBlock = null;
+        return removedLinesCount;
+    }
+
+    /**
+     * 将 danglingBlock 临时贴到面板上（不消行），用于评估落点。
+     * 统计随之增量更新，unPasteDanglingBlock 时还原。
+     */
+    public void pasteDanglingBlock() {
+        assert danglingBlock != null;
+        assert !pasted;
+        assert testBoundAndConflict(blockLeft, blockTop, danglingBlock) == ConflictType.NONE_CONFLICT;
+
+        int[] masks = danglingBlock.getRowMasks();
+        pastedTop = blockTop;
+        for (int y = 0; y < Block.SIDE_LEN; y++) {
+            // 上方屏幕外图形的不合并
+            if (masks[y] != 0 && blockTop + y >= 0) {
+                pastedMasks[y] = shift(masks[y], blockLeft);
+            } else {
+                pastedMasks[y] = 0;
+            }
+        }
+
+        saveStats(pastedTop, pastedMasks);
+        addCells(pastedTop, pastedMasks);
+        pasted = true;
+    }
+
+    public void unPasteDanglingBlock() {
+        if (!pasted)
+            return;
+
+        // 贴上去的格子原来一定是空的，异或即可还原
+        for (int y = 0; y < Block.SIDE_LEN; y++) {
+            if (pastedMasks[y] != 0)
+                rows[pastedTop + y] ^= pastedMasks[y];
+        }
+        restoreStats(pastedTop, pastedMasks);
+        pasted = false;
+    }
+
+    /**
+     * 同 {@link #merge()}，并把这次合并会改变的行和统计压入撤销栈，之后用 {@link #undoMerge()} 还原。
+     * 只记下小方块所在的行到最高的小方块之间的行（消行时只有这些行会移动），
+     * 用于搜索时在同一个面板上逐层放下、再逐层撤销，不必为每一层复制整个面板。
+     * 可以嵌套，按相反的顺序撤销。copyFrom、fill、clear 会清空撤销栈
+     * @return 移除的行数
+     */
+    public int mergeUndoable() {
+        assert danglingBlock != null;
+        assert !pasted;
+
+        int maxHeight = 0;
+        for (int x = 0; x < columnsCount; x++)
+            maxHeight = Math.max(maxHeight, heights[x]);
+        int first, last;
+        if (fullRowsCount > 0) {
+            // 有不是由小方块产生的满行（比如 fill），消行可能涉及所有的行
+            first = 0;
+            last = rowsCount - 1;
+        } else {
+            first = Math.max(Math.min(rowsCount - maxHeight, blockTop), 0);
+            // 顶到屏幕外时消行后还会再合并一次，多记几行
+            last = Math.min(blockTop + (blockTop < 0 ? 2 : 1) * Block.SIDE_LEN, rowsCount) - 1;
+        }
+
+        int size = 2 * Math.max(last - first + 1, 0) + 2 * columnsCount + 11;
+        if (undoIntsTop + size > undoInts.length)
+            undoInts = Arrays.copyOf(undoInts, Math.max(2 * undoInts.length, undoIntsTop + size));
+        if (undoDepth == undoHashes.length) {
+            undoHashes = Arrays.copyOf(undoHashes, Math.max(2 * undoDepth, 8));
+            undoBlocks = Arrays.copyOf(undoBlocks, undoHashes.length);
+        }
+
+        int[] stack = undoInts;
+        int top = undoIntsTop;
+        for (int y = first; y <= last; y++) {
+            stack[top++] = rows[y];
+            stack[top++] = rowTransitions[y];
+        }
+        System.arraycopy(heights, 0, stack, top, columnsCount);
+        top += columnsCount;
+        System.arraycopy(wells, 0, stack, top, columnsCount);
+        top += columnsCount;
+        stack[top++] = aggregateHeight;
+        stack[top++] = filledCount;
+        stack[top++] = totalRowTransitions;
+        stack[top++] = totalColumnTransitions;
+        stack[top++] = totalWellSums;
+        stack[top++] = fullRowsCount;
+        stack[top++] = full ? 1 : 0;
+        stack[top++] = blockLeft;
+        stack[top++] = blockTop;
+        stack[top++] = first;
+        stack[top++] = last;
+        undoIntsTop = top;
+        undoHashes[undoDepth] = hash;
+        undoBlocks[undoDepth++] = danglingBlock;
+
+        return merge();
+    }
+
+    /**
+     * 撤销最近一次 {@link #mergeUndoable()}，面板回到合并之前的状态（包括 danglingBlock）。
+     * 之后 getClearedRows 的内容无效
+     */
+    public void undoMerge() {
+        if (undoDepth == 0)
+            throw new IllegalStateException("undo stack is empty");
+
+        int[] stack = undoInts;
+        int top = undoIntsTop;
+        int last = stack[--top];
+        int first = stack[--top];
+        blockTop = stack[--top];
+        blockLeft = stack[--top];
+        full = stack[--top] != 0;
+        fullRowsCount = stack[--top];
+        totalWellSums = stack[--top];
+        totalColumnTransitions = stack[--top];
+        totalRowTransitions = stack[--top];
+        filledCount = stack[--top];
+        aggregateHeight = stack[--top];
+        top -= columnsCount;
+        System.arraycopy(stack, top, wells, 0, columnsCount);
+        top -= columnsCount;
+        System.arraycopy(stack, top, heights, 0, columnsCount);
+        for (int y = last; y >= first; y--) {
+            rowTransitions[y] = stack[--top];
+            rows[y] = stack[--top];
+        }
+        undoIntsTop = top;
+        hash = undoHashes[--undoDepth];
+        danglingBlock = undoBlocks[undoDepth];
+        undoBlocks[undoDepth] = null;
+    }
+
+    /**
+     * 撤销栈中还没有撤销的合并数
+     */
+    public int getUndoDepth() {
+        return undoDepth;
+    }
+
+    /* ---------------- 增量维护的统计 ---------------- */
+
+    public int getHeight(int x) {
+        return heights[x];
+    }
+
+    public int getAggregateHeight() {
+        return aggregateHeight;
+    }
+
+    /**
+     * 洞：上方同一列中有小方块的空格子。
+     * 每一列的洞数就是该列高度减去该列的小方块数
+     */
+    public int getHoles() {
+        return aggregateHeight - filledCount;
+    }
+
+    public int getRowTransitions() {
+        return totalRowTransitions;
+    }
+
+    public int getColumnTransitions() {
+        return totalColumnTransitions;
+    }
+
+    public int getWellSums() {
+        return totalWellSums;
+    }
+
+    public int getFullRowsCount() {
+        return fullRowsCount;
+    }
+
+    /**
+     * 已固定格子（包括贴上去的 danglingBlock）的 Zobrist 哈希，见 {@link Zobrist}
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    private long hashOf(int from, int to) {
+        long h = 0;
+        for (int y = from; y < to; y++)
+            h ^= Zobrist.row(y, rows[y]);
+        return h;
+    }
+
+    private int rowAt(int y) {
+        if (y < 0)
+            return 0;       // 上边界视为empty cell
+        if (y >= rowsCount)
+            return fullRow; // 下边界视为filled cell
+        return rows[y];
+    }
+
+    private int rowTransitionsOf(int row) {
+        // 最低位是左边界，第col+1位是右边界，共col+1对相邻的格子
+        long bordered = ((row & 0xffffffffL) << 1) | 1L | (1L << (columnsCount + 1));
+        return Long.bitCount((bordered ^ (bordered >>> 1)) & ((1L << (columnsCount + 1)) - 1));
+    }
+
+    /**
+     * 第 from-1 到 to 行之间的列转换数
+     */
+    private int columnTransitionsBetween(int from, int to) {
+        int transitions = 0;
+        int above = rowAt(from - 1);
+        for (int y = from; y <= to; y++) {
+            int row = rowAt(y);
+            transitions += Integer.bitCount(above ^ row);
+            above = row;
+        }
+        return transitions;
+    }
+
+    /**
+     * 第x列的 well sums。
+     * 井从左右都是filled cell（或边界）的第一个空格子开始，到列顶为止，
+     * 深度为n的井记为 1 + 2 + ... + n
+     */
+    private int wellSumsOf(int x) {
+        int top = rowsCount - heights[x];
+        int leftBit = x > 0 ? 1 << (x - 1) : 0;
+        int rightBit = x + 1 < columnsCount ? 1 << (x + 1) : 0;
+        int both = leftBit | rightBit;
+
+        // 两边的列顶之上不可能是井
+        int from = Math.max(x > 0 ? rowsCount - heights[x - 1] : 0,
+                x + 1 < columnsCount ? rowsCount - heights[x + 1] : 0);
+        for (int y = from; y < top; y++) {
+            if ((rows[y] & both) == both) {
+                int deep = top - y;
+                return deep * (deep + 1) / 2;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 全部重新计算统计
+     */
+    private void recomputeStats() {
+        aggregateHeight = filledCount = totalRowTransitions = fullRowsCount = 0;
+        for (int x = 0; x < columnsCount; x++)
+            heights[x] = 0;
+
+        for (int y = rowsCount - 1; y >= 0; y--) {
+            int row = rows[y];
+            for (int m = row; m != 0; m &= m - 1)
+                heights[Integer.numberOfTrailingZeros(m)] = rowsCount - y;
+            filledCount += Integer.bitCount(row);
+            rowTransitions[y] = rowTransitionsOf(row);
+            totalRowTransitions += rowTransitions[y];
+            if (row == fullRow)
+                fullRowsCount++;
+        }
+
+        totalWellSums = 0;
+        for (int x = 0; x < columnsCount; x++) {
+            aggregateHeight += heights[x];
+            wells[x] = wellSumsOf(x);
+            totalWellSums += wells[x];
+        }
+        totalColumnTransitions = columnTransitionsBetween(0, rowsCount);
+        hash = hashOf(0, rowsCount);
+    }
+
+    /**
+     * 加入小方块，增量更新统计。
+     * @param top cells[0] 对应的行
+     * @param cells 每一行新加的格子（已平移到面板的列），这些格子原来必须是空的
+     */
+    private void addCells(int top, int[] cells) {
+        int first = -1, last = -1, columns = 0;
+        for (int y = 0; y < Block.SIDE_LEN; y++) {
+            if (cells[y] != 0) {
+                if (first < 0)
+                    first = top + y;
+                last = top + y;
+                columns |= cells[y];
+            }
+        }
+        if (first < 0)
+            return;
+
+        // 小方块所在的列以及左右相邻的列的井可能改变
+        int wellColumns = (columns | (columns << 1) | (columns >>> 1)) & fullRow;
+
+        totalColumnTransitions -= columnTransitionsBetween(first, last + 1);
+        for (int m = wellColumns; m != 0; m &= m - 1)
+            totalWellSums -= wells[Integer.numberOfTrailingZeros(m)];
+
+        for (int y = 0; y < Block.SIDE_LEN; y++) {
+            if (cells[y] == 0)
+                continue;
+
+            int j = top + y;
+            assert (rows[j] & cells[y]) == 0;
+            rows[j] |= cells[y];
+            hash ^= Zobrist.row(j, cells[y]);
+            filledCount += Integer.bitCount(cells[y]);
+            if (rows[j] == fullRow)
+                fullRowsCount++;
+
+            int transitions = rowTransitionsOf(rows[j]);
+            totalRowTransitions += transitions - rowTransitions[j];
+            rowTransitions[j] = transitions;
+
+            // 自上而下第一次出现的格子决定该列新的高度
+            for (int m = cells[y] & columns; m != 0; m &= m - 1) {
+                int x = Integer.numberOfTrailingZeros(m);
+                int height = rowsCount - j;
+                if (height > heights[x]) {
+                    aggregateHeight += height - heights[x];
+                    heights[x] = height;
+                }
+            }
+            columns &= ~cells[y];
+        }
+
+        totalColumnTransitions += columnTransitionsBetween(first, last + 1);
+        for (int m = wellColumns; m != 0; m &= m - 1) {
+            int x = Integer.numberOfTrailingZeros(m);
+            wells[x] = wellSumsOf(x);
+            totalWellSums += wells[x];
+        }
+    }
+
+    /**
+     * 保存 addCells(top, cells) 会改变的统计
+     */
+    private void saveStats(int top, int[] cells) {
+        int columns = 0;
+        for (int y = 0; y < Block.SIDE_LEN; y++) {
+            columns |= cells[y];
+            if (cells[y] != 0)
+                savedRowTransitions[y] = rowTransitions[top + y];
+        }
+        for (int m = columns; m != 0; m &= m - 1)
+            savedHeights[Integer.numberOfTrailingZeros(m)] = heights[Integer.numberOfTrailingZeros(m)];
+        for (int m = (columns | (columns << 1) | (columns >>> 1)) & fullRow; m != 0; m &= m - 1)
+            savedWells[Integer.numberOfTrailingZeros(m)] = wells[Integer.numberOfTrailingZeros(m)];
+
+        savedAggregateHeight = aggregateHeight;
+        savedFilledCount = filledCount;
+        savedTotalRowTransitions = totalRowTransitions;
+        savedTotalColumnTransitions = totalColumnTransitions;
+        savedTotalWellSums = totalWellSums;
+        savedFullRowsCount = fullRowsCount;
+        savedHash = hash;
+    }
+
+    private void restoreStats(int top, int[] cells) {
+        int columns = 0;
+        for (int y = 0; y < Block.SIDE_LEN; y++) {
+            columns |= cells[y];
+            if (cells[y] != 0)
+                rowTransitions[top + y] = savedRowTransitions[y];
+        }
+        for (int m = columns; m != 0; m &= m - 1)
+            heights[Integer.numberOfTrailingZeros(m)] = savedHeights[Integer.numberOfTrailingZeros(m)];
+        for (int m = (columns | (columns << 1) | (columns >>> 1)) & fullRow; m != 0; m &= m - 1)
+            wells[Integer.numberOfTrailingZeros(m)] = savedWells[Integer.numberOfTrailingZeros(m)];
+
+        aggregateHeight = savedAggregateHeight;
+        filledCount = savedFilledCount;
+        totalRowTransitions = savedTotalRowTransitions;
+        totalColumnTransitions = savedTotalColumnTransitions;
+        totalWellSums = savedTotalWellSums;
+        fullRowsCount = savedFullRowsCount;
+        hash = savedHash;
+    }
+
+    /**
+     * 检测是否冲突
+     * @param left 面板中的x坐标
+     * @param top  面板中的y坐标
+     * @param block 需要检测的小方块
+     * @return 是否冲突
+     */
+    public ConflictType testBoundAndConflict(int left, int top, Block block) {
+        // 先用小方块的范围判断越界，再逐行判断冲突
+        if (left + block.getLeft() < 0)
+            return ConflictType.OUT_OF_LEFT_BOUND;
+        if (left + block.getRight() >= columnsCount)
+            return ConflictType.OUT_OF_RIGHT_BOUND;
+        if (top + block.getBottom() >= rowsCount)
+            return ConflictType.OUT_OF_BOTTOM_BOUND;
+
+        int[] masks = block.getRowMasks();
+        // 小方块从顶部刚出来时是可以显示不全的，所以（j<0）不算越界
+        for (int y = Math.max(block.getTop(), -top); y <= block.getBottom(); y++) {
+            if ((rows[top + y] & shift(masks[y], left)) != 0)
+                return ConflictType.CONFLICT;
+        }
+
+        return ConflictType.NONE_CONFLICT;
+    }
+}
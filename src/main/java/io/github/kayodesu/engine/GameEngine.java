@@ -0,0 +1,227 @@
+package io.github.kayodesu.engine;
+
+import io.github.kayodesu.NeverReachHereError;
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.PieceGenerator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 不依赖界面的游戏引擎：出块、移动、变形、下落、固定、消行、计分和等级。
+ * 引擎不是线程安全的，应只在一个线程中驱动。
+ *
+ * @author Yo Ka
+ */
+public class GameEngine {
+    public static final int BEGIN_X = 3;  // 默认小方块从第3列出来
+    public static final int BEGIN_Y = -Block.SIDE_LEN;
+
+    public static final int MAX_LEVEL = 10;
+
+    // 一次消除1、2、3、4层分别获得的积分
+    private static final int[] SCORES = { 0, 10, 30, 60, 100 };
+
+    // 达到各等级（2-10）所需的积分
+    private static final int[] LEVEL_SCORES = { 1000, 3000, 6000, 10000, 15000, 21000, 28000, 36000, 45000 };
+
+    private final Board board;
+    private final PieceGenerator pieces;
+    private final List<GameListener> listeners = new ArrayList<>();
+
+    private Block nextBlock;
+    private int score = 0;
+    private int level = 1;
+    private int piecesCount = 0;
+    private final int[] clearedRowsRecord = new int[5];
+    private boolean gameOver = false;
+
+    public GameEngine(int columnsCount, int rowsCount) {
+        this(columnsCount, rowsCount, PieceGenerator.uniform(System.nanoTime()));
+    }
+
+    /**
+     * @param seed 均匀随机出块的种子，种子相同则出块序列相同
+     */
+    public GameEngine(int columnsCount, int rowsCount, long seed) {
+        this(columnsCount, rowsCount, PieceGenerator.uniform(seed));
+    }
+
+    /**
+     * @param pieces 出块序列，只由这局游戏使用
+     */
+    public GameEngine(int columnsCount, int rowsCount, PieceGenerator pieces) {
+        board = new Board(columnsCount, rowsCount);
+        this.pieces = pieces;
+    }
+
+    public void addListener(GameListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(GameListener listener) {
+        listeners.remove(listener);
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public Block getNextBlock() {
+        return nextBlock;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 已经固定的小方块数
+     */
+    public int getPiecesCount() {
+        return piecesCount;
+    }
+
+    /**
+     * 下标表示一次消除的行数，值表示发生的次数
+     */
+    public int[] getClearedRowsRecord() {
+        return clearedRowsRecord;
+    }
+
+    public boolean isGameOver() {
+        return gameOver;
+    }
+
+    /**
+     * 开始一局游戏，出第一个小方块
+     */
+    public void start() {
+        nextBlock = pieces.next().getBlock(0);
+        spawn();
+    }
+
+    /**
+     * 把 nextBlock 放到面板顶部，并生成新的 nextBlock
+     */
+    private void spawn() {
+        board.setDanglingBlock(BEGIN_X, BEGIN_Y, nextBlock);
+        nextBlock = pieces.next().getBlock(0);
+
+        for (GameListener listener : listeners)
+            listener.onNextBlock(nextBlock);
+        fireBlockMoved();
+    }
+
+    private void fireBlockMoved() {
+        for (GameListener listener : listeners)
+            listener.onBlockMoved(board);
+    }
+
+    public boolean moveLeft() {
+        if (board.moveLeft()) {
+            fireBlockMoved();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean moveRight() {
+        if (board.moveRight()) {
+            fireBlockMoved();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean rotate() {
+        if (board.transform()) {
+            fireBlockMoved();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean moveDown() {
+        if (board.moveDown()) {
+            fireBlockMoved();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 把当前小方块直接换成形态 block 并放到 (left, top)，用于回放。
+     * block 必须与当前小方块是同一类型
+     * @return 是否放得下
+     */
+    public boolean place(int left, int top, Block block) {
+        Block current = board.getDanglingBlock();
+        if (current == null || current.getType() != block.getType())
+            return false;
+        if (board.setDanglingBlock(left, top, block) != Board.ConflictType.NONE_CONFLICT)
+            return false;
+        fireBlockMoved();
+        return true;
+    }
+
+    /**
+     * 直接落到底部（不固定）
+     * @return 下落的行数
+     */
+    public int drop() {
+        int rows = board.drop();
+        if (rows > 0)
+            fireBlockMoved();
+        return rows;
+    }
+
+    /**
+     * 触底后的处理：固定当前小方块，消行计分，然后出下一个小方块
+     * @return 消除的行数
+     */
+    public int lock() {
+        Block block = board.getDanglingBlock();
+        int left = board.blockLeft, top = board.blockTop;
+
+        int eliminatedLinesCount = board.merge();
+        piecesCount++;
+        for (GameListener listener : listeners)
+            listener.onBlockLocked(board, block, left, top, eliminatedLinesCount);
+
+        if (eliminatedLinesCount > 0) {
+            if (eliminatedLinesCount >= SCORES.length)
+                throw new NeverReachHereError("error. Eliminated " + eliminatedLinesCount + " row(s)");
+
+            clearedRowsRecord[eliminatedLinesCount]++;
+            score += SCORES[eliminatedLinesCount];
+            level = levelOf(score);
+
+            for (GameListener listener : listeners)
+                listener.onScoreChanged(score, level, clearedRowsRecord);
+        }
+
+        spawn();
+
+        if (board.isFull()) {
+            gameOver = true;
+            for (GameListener listener : listeners)
+                listener.onGameOver();
+        }
+        return eliminatedLinesCount;
+    }
+
+    /**
+     * 根据得分确定等级
+     */
+    public static int levelOf(int score) {
+        int level = 1;
+        while (level < MAX_LEVEL && score >= LEVEL_SCORES[level - 1])
+            level++;
+        return level;
+    }
+}
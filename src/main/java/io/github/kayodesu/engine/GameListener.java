@@ -0,0 +1,36 @@
+package io.github.kayodesu.engine;
+
+import io.github.kayodesu.block.Block;
+
+/**
+ * GameEngine 的事件回调，界面等作为可选的监听者挂在引擎上。
+ * 回调在调用引擎方法的线程中执行。
+ *
+ * @author Yo Ka
+ */
+public interface GameListener {
+
+    /**
+     * 当前小方块移动或变形了
+     */
+    default void onBlockMoved(Board board) {
+    }
+
+    /**
+     * 小方块固定到了面板上
+     * @param left 固定时小方块的x坐标
+     * @param top 固定时小方块的y坐标
+     * @param eliminatedLinesCount 消除的行数，被消除的行见 {@link Board#getClearedRows()}
+     */
+    default void onBlockLocked(Board board, Block block, int left, int top, int eliminatedLinesCount) {
+    }
+
+    default void onNextBlock(Block nextBlock) {
+    }
+
+    default void onScoreChanged(int score, int level, int[] clearedRowsRecord) {
+    }
+
+    default void onGameOver() {
+    }
+}
@@ -0,0 +1,303 @@
+package io.github.kayodesu.engine;
+
+import io.github.kayodesu.NeverReachHereError;
+import io.github.kayodesu.ai.AI;
+import io.github.kayodesu.metrics.GameMetrics;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事件驱动的游戏循环：一个线程阻塞地从动作队列中取动作并驱动 {@link GameEngine}，
+ * 引擎只在这个线程中访问。
+ *
+ * 重力由 ScheduledExecutorService 定时往队列里放 DOWN，等级改变时按新的间隔重新安排；
+ * AI 下时不用重力，由循环自己计算落点并逐行下落。
+ * 没有输入时线程阻塞在队列上，不占用CPU。
+ *
+ * @author Yo Ka
+ */
+public class GameLoop {
+
+    // 按了向下键之后，快速的下移 FAST_DOWN_CELL_COUNT 格
+    private static final int FAST_DOWN_CELL_COUNT = 3;
+
+    // AI 选择落点最多用重力间隔的这一比例，余下的留给下落和调度的抖动
+    private static final double AI_BUDGET_RATIO = 0.5;
+
+    // 队列中的一个输入，time 是放入队列的时间，用于统计输入延迟
+    private static class Input {
+        final Action action; // null 表示只唤醒循环
+        final long time;
+
+        Input(Action action, long time) {
+            this.action = action;
+            this.time = time;
+        }
+    }
+
+    private static final Input WAKE_UP = new Input(null, 0);
+
+    private final GameEngine engine;
+    private final AI ai;
+    private final ScheduledExecutorService scheduler;
+    private final ThreadFactory threadFactory;
+    private final BlockingQueue<Input> inputs = new LinkedBlockingQueue<>(1024);
+
+    private volatile boolean running = false;
+    private volatile boolean paused = false;
+    private volatile boolean aiPlaying = false;
+    private volatile int aiRowDelayMillis = 10; // AI 下时每下落一行的间隔，0表示直接落下
+    private volatile double gravityScale = 1;   // 重力间隔的缩放比例
+    private Thread thread;
+
+    // 只在游戏循环的线程和 scheduler 中访问
+    private ScheduledFuture<?> gravity;
+    private int gravityLevel;
+
+    // AI 的耗时、输入延迟、队列深度等
+    private final GameMetrics metrics;
+
+    /**
+     * @param ai 为null时只能由输入驱动
+     * @param scheduler 产生重力的定时器，可以由多个游戏共享，由调用者关闭
+     * @param threadFactory 创建游戏循环的线程
+     */
+    public GameLoop(GameEngine engine, AI ai, ScheduledExecutorService scheduler, ThreadFactory threadFactory) {
+        this(engine, ai, scheduler, threadFactory, new GameMetrics());
+    }
+
+    /**
+     * @param metrics 记录指标，可以由多个游戏共享
+     */
+    public GameLoop(GameEngine engine, AI ai, ScheduledExecutorService scheduler, ThreadFactory threadFactory,
+                    GameMetrics metrics) {
+        this.engine = engine;
+        this.ai = ai;
+        this.scheduler = scheduler;
+        this.threadFactory = threadFactory;
+        this.metrics = metrics;
+
+        engine.addListener(metrics);
+
+        engine.addListener(new GameListener() {
+            @Override
+            public void onScoreChanged(int score, int level, int[] clearedRowsRecord) {
+                if (level != gravityLevel)
+                    armGravity(level);
+            }
+
+            @Override
+            public void onGameOver() {
+                running = false;
+            }
+        });
+    }
+
+    /**
+     * 各等级（1-10）下重力下落一格的间隔（毫秒）
+     */
+    public static int gravityIntervalOf(int level) {
+        return 1000 - (level - 1) * 100;
+    }
+
+    public GameEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * 开始游戏：出第一个小方块，启动重力和游戏循环的线程
+     */
+    public synchronized void start() {
+        if (thread != null)
+            throw new IllegalStateException("already started");
+        running = true;
+        thread = threadFactory.newThread(this::run);
+        thread.start();
+    }
+
+    /**
+     * 停止游戏循环并等待线程结束。可以在任何线程中调用，包括游戏循环的线程（此时不等待）
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+        }
+        if (t == null)
+            return;
+        t.interrupt();
+        if (t != Thread.currentThread())
+            t.join();
+    }
+
+    /**
+     * 等待游戏循环的线程结束（游戏结束或 stop），最多等待 millis 毫秒
+     * @return 线程是否已经结束
+     */
+    public boolean join(long millis) throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t == null)
+            return true;
+        if (millis > 0)
+            t.join(millis);
+        return !t.isAlive();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 放入一个动作，可以在任何线程中调用。队列满时丢弃
+     * @return 是否放入了队列
+     */
+    public boolean post(Action action) {
+        return inputs.offer(new Input(action, System.nanoTime()));
+    }
+
+    /**
+     * 暂停时没有重力，输入仍然有效
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setAiPlaying(boolean aiPlaying) {
+        if (aiPlaying && ai == null)
+            throw new IllegalStateException("no AI");
+        this.aiPlaying = aiPlaying;
+        inputs.offer(WAKE_UP);
+    }
+
+    public boolean isAiPlaying() {
+        return aiPlaying;
+    }
+
+    public void setAiRowDelayMillis(int millis) {
+        aiRowDelayMillis = millis;
+    }
+
+    /**
+     * 重力间隔乘以 scale，比如压力测试时加快游戏。在 start() 之前设置
+     */
+    public void setGravityScale(double scale) {
+        if (!(scale > 0))
+            throw new IllegalArgumentException("scale = " + scale);
+        gravityScale = scale;
+    }
+
+    public GameMetrics getMetrics() {
+        return metrics;
+    }
+
+    private synchronized void armGravity(int level) {
+        if (gravity != null)
+            gravity.cancel(false);
+        gravityLevel = level;
+        if (!running)
+            return;
+        long interval = Math.max(1, (long) (gravityIntervalOf(level) * 1000 * gravityScale));
+        gravity = scheduler.scheduleAtFixedRate(() -> {
+            if (!paused && !aiPlaying)
+                post(Action.DOWN);
+        }, interval, interval, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * 触底后的处理：固定，丢弃还没执行的输入
+     */
+    private void touchBottom() {
+        engine.lock();
+        inputs.clear();
+    }
+
+    private void run() {
+        try {
+            engine.start();
+            armGravity(engine.getLevel());
+
+            while (running) {
+                if (aiPlaying) {
+                    playByAI();
+                } else {
+                    Input input = inputs.take();
+                    if (input.action != null && !aiPlaying) {
+                        apply(input.action);
+                        metrics.recordInput(input.time, inputs.size());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // stop()
+        } finally {
+            running = false;
+            synchronized (this) {
+                if (gravity != null)
+                    gravity.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 当前等级下 AI 选择一次落点的时间预算（纳秒）
+     */
+    public long aiBudgetNanos() {
+        return (long) (gravityIntervalOf(engine.getLevel()) * 1_000_000L * gravityScale * AI_BUDGET_RATIO);
+    }
+
+    private void playByAI() throws InterruptedException {
+        long start = System.nanoTime();
+        ai.calBestColAndStat(start + aiBudgetNanos());
+        metrics.recordDecision(System.nanoTime() - start, ai.getCandidatesCount());
+        int delay = aiRowDelayMillis;
+        if (delay > 0) {
+            while (engine.moveDown())
+                Thread.sleep(delay);
+        } else {
+            engine.drop();
+        }
+        touchBottom();
+    }
+
+    private void apply(Action action) throws InterruptedException {
+        switch (action) {
+            case LEFT:
+                engine.moveLeft();
+                break;
+            case RIGHT:
+                engine.moveRight();
+                break;
+            case TRANSFORM:
+                engine.rotate();
+                break;
+            case DOWN:
+                if (!engine.moveDown())
+                    touchBottom();
+                break;
+            case FAST_DOWN:
+                for (int i = 0; i < FAST_DOWN_CELL_COUNT; i++) {
+                    if (!engine.moveDown()) {
+                        touchBottom();
+                        break; // 当前小方块已经固定在底部了
+                    }
+                    Thread.sleep(10);
+                }
+                break;
+            default:
+                throw new NeverReachHereError("action = " + action);
+        }
+    }
+}
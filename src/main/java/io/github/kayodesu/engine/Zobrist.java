@@ -0,0 +1,63 @@
+package io.github.kayodesu.engine;
+
+import io.github.kayodesu.block.Block;
+
+/**
+ * Zobrist 哈希：每个格子、每个小方块都对应一个随机的64位键，
+ * 面板的哈希是所有已固定格子的键的异或，加入或移除格子时异或一次即可增量更新。
+ *
+ * 面板的行数不固定，键不存成表，而是由格子的序号经 splitmix64 混合得到，
+ * 效果等同于一张固定种子的随机表。
+ *
+ * @author Yo Ka
+ */
+public final class Zobrist {
+
+    private static final long CELL_SEED = 0x9E3779B97F4A7C15L;
+    private static final long BLOCK_SEED = 0xC2B2AE3D27D4EB4FL;
+    private static final long PLACEMENT_SEED = 0x165667B19E3779F9L;
+
+    private Zobrist() {
+    }
+
+    /**
+     * splitmix64 的混合函数
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 第y行第x列格子的键
+     */
+    public static long cell(int x, int y) {
+        return mix(CELL_SEED + ((long) y * Board.MAX_COLUMNS_COUNT + x));
+    }
+
+    /**
+     * 第y行中 mask 表示的所有格子的键的异或
+     */
+    public static long row(int y, int mask) {
+        long h = 0;
+        for (int m = mask; m != 0; m &= m - 1)
+            h ^= cell(Integer.numberOfTrailingZeros(m), y);
+        return h;
+    }
+
+    /**
+     * 小方块类型的键，与形态无关
+     */
+    public static long block(Block block) {
+        return mix(BLOCK_SEED + block.getType().ordinal());
+    }
+
+    /**
+     * 落点（小方块的类型、形态和所在的列）的键
+     */
+    public static long placement(Block block, int x) {
+        long id = (block.getType().ordinal() * 4L + block.getStat()) * 64 + (x + Block.SIDE_LEN);
+        return mix(PLACEMENT_SEED + id);
+    }
+}
@@ -0,0 +1,323 @@
+package io.github.kayodesu.metrics;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameListener;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 游戏的运行指标：AI 选择落点的耗时和评估的候选数、小方块和消行的速率、
+ * 输入的延迟和动作队列的深度、从输入到画面的延迟、每帧的间隔。
+ *
+ * 作为监听者挂在一个或多个 GameEngine 上统计小方块和消行，其余由
+ * {@link io.github.kayodesu.engine.GameLoop}、Simulator、RenderScheduler 记录。
+ * 记录可以在任何线程中进行，每次只是一个计数或一次短暂加锁的直方图记录；
+ * 读取用 {@link #snapshot()}，界面、无界面的工具和 JMX 显示的是同一组数字。
+ * 有上一级指标时，每次记录同时记入上一级，比如每个会话各有一组，汇总到宿主的一组中。
+ *
+ * @author Yo Ka
+ */
+public class GameMetrics implements GameMetricsMXBean, GameListener {
+
+    // 以下直方图都以自身为锁
+    private final Histogram decisionLatency = new Histogram(); // 纳秒
+    private final Histogram inputLatency = new Histogram();    // 从 post 到执行完，纳秒
+    private final Histogram queueDepth = new Histogram();      // 执行输入时队列中剩下的输入数
+    private final Histogram inputToRender = new Histogram();   // 从 post 到画面绘制完，纳秒
+    private final Histogram frameTime = new Histogram();       // 两帧的间隔，纳秒
+
+    private final LongAdder candidates = new LongAdder();
+    private final LongAdder pieces = new LongAdder();
+    private final LongAdder lines = new LongAdder();
+
+    // 最早的还没有绘制到画面上的输入的时间，0表示没有
+    private final AtomicLong pendingInput = new AtomicLong();
+
+    // 同时记入的上一级指标，没有时为null
+    private final GameMetrics parent;
+
+    private volatile long startNanos = System.nanoTime();
+    private ObjectName objectName;
+
+    public GameMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param parent 每次记录同时记入 parent，为null时只记在自己这里
+     */
+    public GameMetrics(GameMetrics parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * 某一时刻的指标，不会再改变
+     */
+    public static class Snapshot {
+        public final long elapsedNanos;
+        public final long pieces, lines, candidates;
+        public final Histogram decisionLatency, inputLatency, queueDepth, inputToRender, frameTime;
+
+        Snapshot(long elapsedNanos, long pieces, long lines, long candidates, Histogram decisionLatency,
+                 Histogram inputLatency, Histogram queueDepth, Histogram inputToRender, Histogram frameTime) {
+            this.elapsedNanos = elapsedNanos;
+            this.pieces = pieces;
+            this.lines = lines;
+            this.candidates = candidates;
+            this.decisionLatency = decisionLatency;
+            this.inputLatency = inputLatency;
+            this.queueDepth = queueDepth;
+            this.inputToRender = inputToRender;
+            this.frameTime = frameTime;
+        }
+
+        public double getPiecesPerSecond() {
+            return elapsedNanos == 0 ? 0 : pieces * 1e9 / elapsedNanos;
+        }
+
+        public double getLinesPerMinute() {
+            return elapsedNanos == 0 ? 0 : lines * 60e9 / elapsedNanos;
+        }
+
+        /**
+         * 按 AI 计算的总时间算的每秒评估的候选数
+         */
+        public double getCandidatesPerSecond() {
+            double nanos = decisionLatency.getMean() * decisionLatency.getCount();
+            return nanos == 0 ? 0 : candidates * 1e9 / nanos;
+        }
+
+        private static String latency(String name, Histogram h, double unit, String unitName) {
+            return String.format("%s (%s): count %d, mean %.1f, p50 %.1f, p99 %.1f, max %.1f", name, unitName,
+                    h.getCount(), h.getMean() / unit, h.getPercentile(50) / unit, h.getPercentile(99) / unit,
+                    h.getMax() / unit);
+        }
+
+        /**
+         * 有记录的指标，每行一项
+         */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("pieces: %d, %.1f pieces/s, lines: %d, %.1f lines/min",
+                    pieces, getPiecesPerSecond(), lines, getLinesPerMinute()));
+            if (decisionLatency.getCount() > 0) {
+                sb.append(System.lineSeparator()).append(latency("decision latency", decisionLatency, 1e3, "us"))
+                        .append(String.format(", %.0f candidates/s", getCandidatesPerSecond()));
+            }
+            if (inputLatency.getCount() > 0) {
+                sb.append(System.lineSeparator()).append(latency("input latency", inputLatency, 1e3, "us"))
+                        .append(String.format(", max queue depth %d", queueDepth.getMax()));
+            }
+            if (inputToRender.getCount() > 0)
+                sb.append(System.lineSeparator()).append(latency("input to render", inputToRender, 1e6, "ms"));
+            if (frameTime.getCount() > 0)
+                sb.append(System.lineSeparator()).append(latency("frame time", frameTime, 1e6, "ms"));
+            return sb.toString();
+        }
+    }
+
+    private static void record(Histogram histogram, long value) {
+        synchronized (histogram) {
+            histogram.record(value);
+        }
+    }
+
+    private static Histogram copyOf(Histogram histogram) {
+        Histogram copy = new Histogram();
+        synchronized (histogram) {
+            copy.add(histogram);
+        }
+        return copy;
+    }
+
+    /**
+     * AI 选择了一次落点
+     * @param nanos 耗时
+     * @param candidatesCount 评估的候选数，见 {@link io.github.kayodesu.ai.AI#getCandidatesCount()}
+     */
+    public void recordDecision(long nanos, int candidatesCount) {
+        record(decisionLatency, nanos);
+        candidates.add(candidatesCount);
+        if (parent != null)
+            parent.recordDecision(nanos, candidatesCount);
+    }
+
+    /**
+     * 执行完一个输入
+     * @param postNanos 输入放入队列的时间
+     * @param queueDepth 此时队列中剩下的输入数
+     */
+    public void recordInput(long postNanos, int queueDepth) {
+        recordInput(postNanos, System.nanoTime() - postNanos, queueDepth);
+    }
+
+    private void recordInput(long postNanos, long latency, int queueDepth) {
+        record(inputLatency, latency);
+        record(this.queueDepth, queueDepth);
+        pendingInput.compareAndSet(0, postNanos);
+        if (parent != null)
+            parent.recordInput(postNanos, latency, queueDepth);
+    }
+
+    /**
+     * 绘制了一帧
+     * @param frameNanos 与上一帧的间隔，小于0表示第一帧
+     * @param painted 这一帧是否有重绘，有重绘时之前执行的输入都已经显示出来
+     */
+    public void recordFrame(long frameNanos, boolean painted) {
+        if (frameNanos >= 0)
+            record(frameTime, frameNanos);
+        if (painted) {
+            long input = pendingInput.getAndSet(0);
+            if (input != 0)
+                record(inputToRender, System.nanoTime() - input);
+        }
+        if (parent != null)
+            parent.recordFrame(frameNanos, painted);
+    }
+
+    @Override
+    public void onBlockLocked(Board board, Block block, int left, int top, int eliminatedLinesCount) {
+        pieces.increment();
+        lines.add(eliminatedLinesCount);
+        if (parent != null)
+            parent.onBlockLocked(board, block, left, top, eliminatedLinesCount);
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(System.nanoTime() - startNanos, pieces.sum(), lines.sum(), candidates.sum(),
+                copyOf(decisionLatency), copyOf(inputLatency), copyOf(queueDepth),
+                copyOf(inputToRender), copyOf(frameTime));
+    }
+
+    /**
+     * 清零，速率从现在开始计算
+     */
+    @Override
+    public void reset() {
+        for (Histogram h : new Histogram[] { decisionLatency, inputLatency, queueDepth, inputToRender, frameTime }) {
+            synchronized (h) {
+                h.reset();
+            }
+        }
+        candidates.reset();
+        pieces.reset();
+        lines.reset();
+        pendingInput.set(0);
+        startNanos = System.nanoTime();
+    }
+
+    /* ---------------- JMX ---------------- */
+
+    /**
+     * 注册到平台的 MBeanServer，名为 io.github.kayodesu:type=GameMetrics,name=name
+     */
+    public synchronized void register(String name) {
+        try {
+            ObjectName on = new ObjectName("io.github.kayodesu:type=GameMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            objectName = on;
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot register metrics " + name, e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("cannot unregister metrics " + objectName, e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getPieces() {
+        return pieces.sum();
+    }
+
+    @Override
+    public long getLines() {
+        return lines.sum();
+    }
+
+    @Override
+    public double getPiecesPerSecond() {
+        return pieces.sum() * 1e9 / (System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public double getLinesPerMinute() {
+        return lines.sum() * 60e9 / (System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public double getCandidatesPerSecond() {
+        double nanos;
+        synchronized (decisionLatency) {
+            nanos = decisionLatency.getMean() * decisionLatency.getCount();
+        }
+        return nanos == 0 ? 0 : candidates.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public long getDecisions() {
+        synchronized (decisionLatency) {
+            return decisionLatency.getCount();
+        }
+    }
+
+    @Override
+    public double getDecisionLatencyMeanMicros() {
+        synchronized (decisionLatency) {
+            return decisionLatency.getMean() / 1e3;
+        }
+    }
+
+    @Override
+    public double getDecisionLatencyP99Micros() {
+        synchronized (decisionLatency) {
+            return decisionLatency.getPercentile(99) / 1e3;
+        }
+    }
+
+    @Override
+    public double getInputLatencyP99Micros() {
+        synchronized (inputLatency) {
+            return inputLatency.getPercentile(99) / 1e3;
+        }
+    }
+
+    @Override
+    public long getActionQueueDepthMax() {
+        synchronized (queueDepth) {
+            return queueDepth.getMax();
+        }
+    }
+
+    @Override
+    public double getInputToRenderP99Millis() {
+        synchronized (inputToRender) {
+            return inputToRender.getPercentile(99) / 1e6;
+        }
+    }
+
+    @Override
+    public double getFrameTimeP99Millis() {
+        synchronized (frameTime) {
+            return frameTime.getPercentile(99) / 1e6;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.kayodesu.metrics;
+
+/**
+ * {@link GameMetrics} 的 JMX 接口，可以用 jconsole、VisualVM 查看。
+ * 延迟都取自当前的快照。
+ *
+ * @author Yo Ka
+ */
+public interface GameMetricsMXBean {
+    long getPieces();
+
+    long getLines();
+
+    double getPiecesPerSecond();
+
+    double getLinesPerMinute();
+
+    /**
+     * AI 每秒（AI 计算的时间）评估的候选落点数
+     */
+    double getCandidatesPerSecond();
+
+    long getDecisions();
+
+    double getDecisionLatencyMeanMicros();
+
+    double getDecisionLatencyP99Micros();
+
+    double getInputLatencyP99Micros();
+
+    long getActionQueueDepthMax();
+
+    double getInputToRenderP99Millis();
+
+    double getFrameTimeP99Millis();
+
+    void reset();
+}
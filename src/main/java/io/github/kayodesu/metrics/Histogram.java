@@ -0,0 +1,98 @@
+package io.github.kayodesu.metrics;
+
+import java.util.Arrays;
+
+/**
+ * 记录非负整数（比如纳秒）分布的对数直方图，用于求百分位数。
+ * 每个2的幂区间再分为16个子区间，相对误差不超过 1/16。
+ * 不是线程安全的，多线程时每个线程使用自己的实例，最后 {@link #add(Histogram)} 合并，
+ * 或者像 {@link GameMetrics} 一样加锁。
+ *
+ * @author Yo Ka
+ */
+public class Histogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final long[] counts = new long[(Long.SIZE - SUB_BITS + 1) * SUB_COUNT];
+    private long count, sum;
+    private long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+
+    private static int indexOf(long value) {
+        if (value < SUB_COUNT)
+            return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value); // >= SUB_BITS
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * 第 index 个区间的下界
+     */
+    private static long lowerBoundOf(int index) {
+        if (index < SUB_COUNT)
+            return index;
+        int exp = index / SUB_COUNT + SUB_BITS - 1;
+        int sub = index % SUB_COUNT;
+        return (long) (SUB_COUNT + sub) << (exp - SUB_BITS);
+    }
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void add(Histogram other) {
+        for (int i = 0; i < counts.length; i++)
+            counts[i] += other.counts[i];
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = sum = 0;
+        min = Long.MAX_VALUE;
+        max = Long.MIN_VALUE;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile 0 到 100
+     * @return 不小于 percentile% 的记录的最小值（所在区间的下界，不超过最大值）
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.max(getMin(), Math.min(lowerBoundOf(i), max));
+        }
+        return max;
+    }
+}
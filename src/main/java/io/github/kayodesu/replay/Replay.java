@@ -0,0 +1,115 @@
+package io.github.kayodesu.replay;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 一局游戏的录像，由 {@link ReplayRecorder} 写入。
+ *
+ * 文件格式（大端）：
+ * <pre>
+ * 文件头 HEADER_SIZE 字节：magic int, version byte, columnsCount short, rowsCount short, seed long, 开始时间 long（毫秒）
+ * 每个固定的小方块 RECORD_SIZE 字节：类型 byte, 形态 byte, left byte, top short, 距开始的时间 int（毫秒）
+ * </pre>
+ * 小方块的类型依次就是出块序列。
+ *
+ * @author Yo Ka
+ */
+public class Replay {
+    static final int MAGIC = 0x5450524C; // "TPRL"
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1 + 2 + 2 + 8 + 8;
+    static final int RECORD_SIZE = 1 + 1 + 1 + 2 + 4;
+
+    public final int columnsCount, rowsCount;
+    public final long seed;
+    public final long startMillis;
+
+    private int count;
+    private byte[] types, stats, lefts;
+    private short[] tops;
+    private int[] times;
+
+    private Replay(int columnsCount, int rowsCount, long seed, long startMillis, int capacity) {
+        this.columnsCount = columnsCount;
+        this.rowsCount = rowsCount;
+        this.seed = seed;
+        this.startMillis = startMillis;
+        types = new byte[capacity];
+        stats = new byte[capacity];
+        lefts = new byte[capacity];
+        tops = new short[capacity];
+        times = new int[capacity];
+    }
+
+    public static Replay read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(size, Integer.MAX_VALUE));
+            while (buf.hasRemaining() && channel.read(buf) >= 0);
+            buf.flip();
+
+            if (buf.remaining() < HEADER_SIZE)
+                throw new EOFException("truncated replay header: " + path);
+            if (buf.getInt() != MAGIC)
+                throw new IOException("not a replay file: " + path);
+            byte version = buf.get();
+            if (version != VERSION)
+                throw new IOException("unsupported replay version " + version + ": " + path);
+
+            int columnsCount = buf.getShort(), rowsCount = buf.getShort();
+            long seed = buf.getLong(), startMillis = buf.getLong();
+            // 最后一条记录可能没写完（比如进程被杀），忽略
+            int count = buf.remaining() / RECORD_SIZE;
+            Replay replay = new Replay(columnsCount, rowsCount, seed, startMillis, count);
+            for (int i = 0; i < count; i++) {
+                replay.types[i] = buf.get();
+                replay.stats[i] = buf.get();
+                replay.lefts[i] = buf.get();
+                replay.tops[i] = buf.getShort();
+                replay.times[i] = buf.getInt();
+                if (replay.types[i] < 0 || replay.types[i] >= BlockType.count())
+                    throw new IOException("bad block type at piece " + i + ": " + path);
+            }
+            replay.count = count;
+            return replay;
+        }
+    }
+
+    /**
+     * 固定的小方块数
+     */
+    public int getPiecesCount() {
+        return count;
+    }
+
+    public BlockType getType(int i) {
+        return BlockType.valueOf(types[i]);
+    }
+
+    public Block getBlock(int i) {
+        return getType(i).getBlock(stats[i]);
+    }
+
+    public int getLeft(int i) {
+        return lefts[i];
+    }
+
+    public int getTop(int i) {
+        return tops[i];
+    }
+
+    /**
+     * 第i个小方块固定时距开始的时间（毫秒）
+     */
+    public int getTime(int i) {
+        return times[i];
+    }
+}
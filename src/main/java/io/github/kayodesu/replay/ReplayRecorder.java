@@ -0,0 +1,97 @@
+package io.github.kayodesu.replay;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 录像：挂在 GameEngine 上，每固定一个小方块写一条记录，格式见 {@link Replay}。
+ * 记录先写入一块直接缓冲区，满了才写入文件，每个小方块的开销只是几次 put。
+ * 回调在游戏循环的线程中，录像不是线程安全的。
+ *
+ * @author Yo Ka
+ */
+public class ReplayRecorder implements GameListener, Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final long startNanos;
+    private boolean closed = false;
+
+    /**
+     * @param seed 出块序列的种子，只记录在文件头中
+     */
+    public ReplayRecorder(Path path, int columnsCount, int rowsCount, long seed) throws IOException {
+        if (columnsCount > Byte.MAX_VALUE || rowsCount > Short.MAX_VALUE)
+            throw new IllegalArgumentException("board too large: " + columnsCount + "x" + rowsCount);
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        startNanos = System.nanoTime();
+        buffer.putInt(Replay.MAGIC)
+                .put(Replay.VERSION)
+                .putShort((short) columnsCount)
+                .putShort((short) rowsCount)
+                .putLong(seed)
+                .putLong(System.currentTimeMillis());
+    }
+
+    @Override
+    public void onBlockLocked(Board board, Block block, int left, int top, int eliminatedLinesCount) {
+        if (closed)
+            return;
+        try {
+            if (buffer.remaining() < Replay.RECORD_SIZE)
+                flush();
+            int millis = (int) ((System.nanoTime() - startNanos) / 1_000_000);
+            buffer.put((byte) block.getType().ordinal())
+                    .put((byte) block.getStat())
+                    .put((byte) left)
+                    .putShort((short) top)
+                    .putInt(millis);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void onGameOver() {
+        try {
+            close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 把缓冲区中的记录写入文件
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.kayodesu.replay;
+
+import io.github.kayodesu.block.BlockType;
+import io.github.kayodesu.block.PieceGenerator;
+import io.github.kayodesu.engine.GameEngine;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * 回放：在新的 GameEngine 上按录像依次放置并固定每个小方块，计分、消行都重新计算。
+ * 引擎上可以挂 {@link io.github.kayodesu.Container} 等监听者，按任意倍速显示；
+ * 也可以不挂监听者全速回放，检查 AI 的改动是否让结果不同。
+ *
+ * 全速回放：java -cp target/classes io.github.kayodesu.replay.Replayer file
+ *
+ * @author Yo Ka
+ */
+public class Replayer {
+
+    private final Replay replay;
+
+    public Replayer(Replay replay) {
+        this.replay = replay;
+    }
+
+    /**
+     * 出块序列与录像相同的引擎。录像之后的预览小方块未知，用 I 代替
+     */
+    public GameEngine createEngine() {
+        PieceGenerator pieces = new PieceGenerator() {
+            private int next = 0;
+
+            @Override
+            public BlockType next() {
+                return next < replay.getPiecesCount() ? replay.getType(next++) : BlockType.I;
+            }
+        };
+        return new GameEngine(replay.columnsCount, replay.rowsCount, pieces);
+    }
+
+    /**
+     * 在 createEngine() 创建的引擎上回放
+     * @param speed 倍速，按录像中的时间间隔除以 speed 等待；不大于0时全速回放
+     * @return 回放的小方块数
+     * @throws IllegalStateException 录像中的位置放不下（录像与引擎不一致）
+     */
+    public int run(GameEngine engine, double speed) throws InterruptedException {
+        engine.start();
+        long start = System.nanoTime();
+        int i;
+        for (i = 0; i < replay.getPiecesCount() && !engine.isGameOver(); i++) {
+            if (speed > 0) {
+                long due = start + (long) (replay.getTime(i) * 1_000_000L / speed);
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            }
+
+            if (!engine.place(replay.getLeft(i), replay.getTop(i), replay.getBlock(i)))
+                throw new IllegalStateException("replay diverged at piece " + i);
+            engine.lock();
+        }
+        return i;
+    }
+
+    /**
+     * 全速回放，不显示
+     */
+    public static GameEngine replay(Replay replay) throws InterruptedException {
+        Replayer replayer = new Replayer(replay);
+        GameEngine engine = replayer.createEngine();
+        replayer.run(engine, 0);
+        return engine;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("usage: Replayer file");
+            System.exit(1);
+        }
+        Replay replay = Replay.read(Paths.get(args[0]));
+        long start = System.nanoTime();
+        GameEngine engine = replay(replay);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%dx%d, seed %d, %d pieces recorded in %.1f s%n", replay.columnsCount, replay.rowsCount,
+                replay.seed, replay.getPiecesCount(),
+                replay.getPiecesCount() == 0 ? 0 : replay.getTime(replay.getPiecesCount() - 1) / 1e3);
+        System.out.printf("replayed %d pieces in %.3f s (%.0f pieces/s), score %d, level %d, %s%n",
+                engine.getPiecesCount(), seconds, engine.getPiecesCount() / seconds, engine.getScore(),
+                engine.getLevel(), engine.isGameOver() ? "game over" : "not over");
+    }
+}
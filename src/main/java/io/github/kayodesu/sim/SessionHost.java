@@ -0,0 +1,291 @@
+package io.github.kayodesu.sim;
+
+import io.github.kayodesu.ai.ElTetris;
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.engine.Action;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameEngine;
+import io.github.kayodesu.engine.GameListener;
+import io.github.kayodesu.engine.GameLoop;
+import io.github.kayodesu.metrics.GameMetrics;
+import io.github.kayodesu.metrics.Histogram;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 无界面的多会话宿主：在一个JVM中同时运行大量游戏会话，用于对 AI 和输入机器人做压力测试。
+ *
+ * 每个会话有自己的引擎、动作队列和 {@link GameLoop} 线程，重力定时器和机器人的输入定时器共享一个线程池。
+ * 运行时支持虚拟线程（JDK 21+）时每个会话的游戏循环跑在一个虚拟线程上；
+ * 否则退回到栈较小的守护平台线程。
+ *
+ * 运行：java -cp target/classes io.github.kayodesu.sim.SessionHost
+ * 参数用系统属性指定：
+ * -Dhost.sessions=1000 -Dhost.mode=ai|bot|mixed -Dhost.maxPieces=200 -Dhost.seconds=60
+ * -Dhost.gravityScale=0.05 -Dhost.botIntervalMillis=20 -Dhost.seed=1 -Dhost.verbose=false
+ * 每个会话有自己的一组指标，同时汇总到宿主的一组中，运行时也可以用 jconsole 查看（name=host）
+ *
+ * @author Yo Ka
+ */
+public class SessionHost {
+
+    public enum Mode {
+        AI,  // AI 下
+        BOT, // 输入机器人随机按键，靠重力下落
+    }
+
+    /**
+     * 一个会话的统计
+     */
+    public static class SessionStats {
+        public final int id;
+        public final Mode mode;
+        public final int pieces;
+        public final int lines;
+        public final int score;
+        public final boolean gameOver;
+        public final long elapsedNanos;
+        public final GameMetrics.Snapshot metrics; // 这个会话的指标，包括输入的延迟
+
+        SessionStats(int id, Mode mode, int pieces, int lines, int score, boolean gameOver, long elapsedNanos,
+                     GameMetrics.Snapshot metrics) {
+            this.id = id;
+            this.mode = mode;
+            this.pieces = pieces;
+            this.lines = lines;
+            this.score = score;
+            this.gameOver = gameOver;
+            this.elapsedNanos = elapsedNanos;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public String toString() {
+            String s = String.format("session %d (%s): %d pieces, %d lines, score %d, %s, %.2f s",
+                    id, mode, pieces, lines, score, gameOver ? "game over" : "stopped", elapsedNanos / 1e9);
+            Histogram latency = mode == Mode.AI ? metrics.decisionLatency : metrics.inputLatency;
+            if (latency.getCount() > 0)
+                s += String.format(", %s latency p99 %.1f us", mode == Mode.AI ? "decision" : "input",
+                        latency.getPercentile(99) / 1e3);
+            return s;
+        }
+    }
+
+    private final int columnsCount, rowsCount;
+    private final int maxPieces;
+    private final double gravityScale;
+    private final int botIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final ThreadFactory threadFactory;
+    private final boolean virtualThreads;
+    private final GameMetrics metrics = new GameMetrics();
+
+    /**
+     * @param maxPieces 每个会话最多的小方块数
+     * @param gravityScale 重力间隔的缩放比例，见 {@link GameLoop#setGravityScale(double)}
+     * @param botIntervalMillis 输入机器人两次按键的间隔
+     */
+    public SessionHost(int columnsCount, int rowsCount, int maxPieces, double gravityScale, int botIntervalMillis) {
+        this.columnsCount = columnsCount;
+        this.rowsCount = rowsCount;
+        this.maxPieces = maxPieces;
+        this.gravityScale = gravityScale;
+        this.botIntervalMillis = botIntervalMillis;
+
+        scheduler = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "session timer");
+            t.setDaemon(true);
+            return t;
+        });
+        ThreadFactory virtual = virtualThreadFactory();
+        virtualThreads = virtual != null;
+        if (virtual != null) {
+            threadFactory = virtual;
+        } else {
+            AtomicInteger n = new AtomicInteger();
+            threadFactory = r -> {
+                Thread t = new Thread(null, r, "session-" + n.incrementAndGet(), 256 * 1024);
+                t.setDaemon(true);
+                return t;
+            };
+        }
+    }
+
+    /**
+     * 运行时支持时返回创建虚拟线程的工厂，否则返回null。
+     * 项目按 JDK 15 编译，只能用反射调用 Thread.ofVirtual().factory()
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * 所有会话汇总的指标
+     */
+    public GameMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 一个正在运行的会话
+     */
+    private class Session implements GameListener {
+        final int id;
+        final Mode mode;
+        final GameEngine engine;
+        final GameMetrics sessionMetrics = new GameMetrics(metrics);
+        final GameLoop loop;
+        final Random random;
+        ScheduledFuture<?> bot;
+        int lines;
+        long start;
+        volatile long end; // 游戏结束或达到上限的时间
+
+        Session(int id, Mode mode, long seed) {
+            this.id = id;
+            this.mode = mode;
+            engine = new GameEngine(columnsCount, rowsCount, seed);
+            loop = new GameLoop(engine, mode == Mode.AI ? new ElTetris(engine.getBoard()) : null,
+                    scheduler, threadFactory, sessionMetrics);
+            loop.setGravityScale(gravityScale);
+            loop.setAiRowDelayMillis(0);
+            random = new Random(seed);
+            engine.addListener(this);
+        }
+
+        void start() {
+            start = System.nanoTime();
+            if (mode == Mode.AI) {
+                loop.setAiPlaying(true);
+            } else {
+                Action[] actions = Action.values();
+                bot = scheduler.scheduleAtFixedRate(() -> loop.post(actions[random.nextInt(actions.length)]),
+                        botIntervalMillis, botIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+            loop.start();
+        }
+
+        @Override
+        public void onBlockLocked(Board board, Block block, int left, int top, int eliminatedLinesCount) {
+            lines += eliminatedLinesCount;
+            if (engine.getPiecesCount() >= maxPieces) {
+                end = System.nanoTime();
+                try {
+                    loop.stop(); // 在游戏循环的线程中，不会等待
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void onGameOver() {
+            end = System.nanoTime();
+        }
+
+        SessionStats finish() throws InterruptedException {
+            loop.stop();
+            if (bot != null)
+                bot.cancel(false);
+            long elapsed = (end != 0 ? end : System.nanoTime()) - start;
+            // 游戏循环结束后才读引擎
+            return new SessionStats(id, mode, engine.getPiecesCount(), lines, engine.getScore(),
+                    engine.isGameOver(), elapsed, sessionMetrics.snapshot());
+        }
+    }
+
+    /**
+     * 同时运行 sessionsCount 个会话，第i个会话的种子为 seed + i。
+     * 每个会话在游戏结束或达到小方块数上限时结束，到 timeoutMillis 时停止所有未结束的会话。
+     */
+    public List<SessionStats> run(int sessionsCount, Mode mode, boolean mixed, long seed, long timeoutMillis)
+            throws InterruptedException {
+        List<Session> sessions = new ArrayList<>(sessionsCount);
+        metrics.reset();
+        for (int i = 0; i < sessionsCount; i++) {
+            Mode m = mixed ? (i % 2 == 0 ? Mode.AI : Mode.BOT) : mode;
+            sessions.add(new Session(i, m, seed + i));
+        }
+        for (Session session : sessions)
+            session.start();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (Session session : sessions) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0 || !session.loop.join(left))
+                break; // 超时，剩下的会话在 finish 中停止
+        }
+
+        List<SessionStats> stats = new ArrayList<>(sessionsCount);
+        for (Session session : sessions)
+            stats.add(session.finish());
+        return stats;
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 所有会话的汇总
+     */
+    public static String summarize(List<SessionStats> stats, GameMetrics.Snapshot metrics) {
+        int over = 0;
+        for (SessionStats s : stats) {
+            if (s.gameOver)
+                over++;
+        }
+        return String.format("sessions: %d (%d game over), %.2f s%n", stats.size(), over, metrics.elapsedNanos / 1e9)
+                + metrics;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int sessions = Integer.getInteger("host.sessions", 1000);
+        String modeName = System.getProperty("host.mode", "mixed");
+        int maxPieces = Integer.getInteger("host.maxPieces", 200);
+        long seconds = Long.getLong("host.seconds", 60);
+        double gravityScale = Double.parseDouble(System.getProperty("host.gravityScale", "0.05"));
+        int botInterval = Integer.getInteger("host.botIntervalMillis", 20);
+        long seed = Long.getLong("host.seed", 1);
+        boolean verbose = Boolean.getBoolean("host.verbose");
+
+        boolean mixed = "mixed".equals(modeName);
+        Mode mode = mixed ? Mode.AI : Mode.valueOf(modeName.toUpperCase());
+
+        SessionHost host = new SessionHost(10, 20, maxPieces, gravityScale, botInterval);
+        host.getMetrics().register("host");
+        System.out.printf("%d %s sessions on %s threads%n", sessions, modeName,
+                host.isUsingVirtualThreads() ? "virtual" : "platform");
+        try {
+            List<SessionStats> stats = host.run(sessions, mode, mixed, seed, seconds * 1000);
+            GameMetrics.Snapshot snapshot = host.getMetrics().snapshot();
+            if (verbose) {
+                for (SessionStats s : stats)
+                    System.out.println(s);
+            }
+            System.out.println(summarize(stats, snapshot));
+        } finally {
+            host.getMetrics().unregister();
+            host.shutdown();
+        }
+    }
+}
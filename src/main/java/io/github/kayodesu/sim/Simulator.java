@@ -0,0 +1,242 @@
+package io.github.kayodesu.sim;
+
+import io.github.kayodesu.ai.AI;
+import io.github.kayodesu.ai.AnytimeAI;
+import io.github.kayodesu.ai.ElTetris;
+import io.github.kayodesu.ai.ExpectimaxAI;
+import io.github.kayodesu.ai.Lookahead;
+import io.github.kayodesu.ai.PipelinedAI;
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.PieceGenerator;
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameEngine;
+import io.github.kayodesu.metrics.GameMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 无界面的批量对局：在多个线程中同时进行多局相互独立的 AI 对局。
+ * 每局有自己的引擎、面板和 AI，第i局的出块序列由种子 seed + i 决定，
+ * 结果与线程数无关。
+ *
+ * 运行：java -cp target/classes io.github.kayodesu.sim.Simulator
+ * 参数用系统属性指定：
+ * -Dsim.games=100 -Dsim.threads=核数 -Dsim.seed=1 -Dsim.maxPieces=10000
+ * -Dsim.columns=10 -Dsim.rows=20 -Dsim.pieces=uniform|seven_bag|history -Dai=lookahead|anytime -Dai.depth=3 -Dai.pipeline=true
+ * 运行时的指标也可以用 jconsole 查看（name=simulator）
+ *
+ * @author Yo Ka
+ */
+public class Simulator {
+
+    private final int columnsCount, rowsCount;
+    private final Function<GameEngine, AI> aiFactory;
+    private final int maxPieces;
+    private final PieceGenerator.Mode pieces;
+
+    /**
+     * 一局的结果
+     */
+    public static class GameResult {
+        public final long seed;
+        public final int pieces;
+        public final int lines;
+        public final int score;
+        public final boolean gameOver; // false表示达到小方块数上限后停止
+
+        GameResult(long seed, int pieces, int lines, int score, boolean gameOver) {
+            this.seed = seed;
+            this.pieces = pieces;
+            this.lines = lines;
+            this.score = score;
+            this.gameOver = gameOver;
+        }
+    }
+
+    /**
+     * 一批对局的结果
+     */
+    public static class Report {
+        public final List<GameResult> games;
+        public final GameMetrics.Snapshot metrics; // 所有对局的指标，包括每次选择落点的耗时
+        public final long elapsedNanos;
+
+        Report(List<GameResult> games, GameMetrics.Snapshot metrics) {
+            this.games = games;
+            this.metrics = metrics;
+            this.elapsedNanos = metrics.elapsedNanos;
+        }
+
+        public long getTotalPieces() {
+            long sum = 0;
+            for (GameResult game : games)
+                sum += game.pieces;
+            return sum;
+        }
+
+        public long getTotalLines() {
+            long sum = 0;
+            for (GameResult game : games)
+                sum += game.lines;
+            return sum;
+        }
+
+        public double getMeanLines() {
+            return games.isEmpty() ? 0 : (double) getTotalLines() / games.size();
+        }
+
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            int minLines = Integer.MAX_VALUE, maxLines = 0, over = 0;
+            for (GameResult game : games) {
+                minLines = Math.min(minLines, game.lines);
+                maxLines = Math.max(maxLines, game.lines);
+                if (game.gameOver)
+                    over++;
+            }
+            if (games.isEmpty())
+                minLines = 0;
+
+            return String.format("games: %d (%d game over), %.2f s, %.1f games/s%n", games.size(), over, seconds, games.size() / seconds)
+                    + String.format("lines per game: mean %.1f, min %d, max %d%n", getMeanLines(), minLines, maxLines)
+                    + metrics;
+        }
+    }
+
+    /**
+     * @param aiFactory 为每局的引擎创建 AI，AI 在该局结束后 stop
+     * @param maxPieces 每局最多的小方块数，AI 足够强时对局可能不会结束
+     */
+    public Simulator(int columnsCount, int rowsCount, Function<GameEngine, AI> aiFactory, int maxPieces) {
+        this(columnsCount, rowsCount, aiFactory, maxPieces, PieceGenerator.Mode.UNIFORM);
+    }
+
+    /**
+     * @param pieces 出块的方式，每局用自己的种子创建生成器
+     */
+    public Simulator(int columnsCount, int rowsCount, Function<GameEngine, AI> aiFactory, int maxPieces,
+                     PieceGenerator.Mode pieces) {
+        if (maxPieces <= 0)
+            throw new IllegalArgumentException("maxPieces = " + maxPieces);
+        this.columnsCount = columnsCount;
+        this.rowsCount = rowsCount;
+        this.aiFactory = aiFactory;
+        this.maxPieces = maxPieces;
+        this.pieces = pieces;
+    }
+
+    /**
+     * 进行一局游戏，小方块、消行和每次选择落点的耗时记入 metrics
+     */
+    public GameResult play(long seed, GameMetrics metrics) {
+        return play(seed, pieces.create(seed), metrics);
+    }
+
+    /**
+     * 按给定的出块序列进行一局游戏，比如 {@link io.github.kayodesu.block.PieceSequence#cursor()}
+     * @param seed 只用于记录在结果中
+     */
+    public GameResult play(long seed, PieceGenerator generator, GameMetrics metrics) {
+        GameEngine engine = new GameEngine(columnsCount, rowsCount, generator);
+        engine.addListener(metrics);
+        AI ai = aiFactory.apply(engine);
+        int lines = 0;
+        try {
+            engine.start();
+            while (!engine.isGameOver() && engine.getPiecesCount() < maxPieces) {
+                long start = System.nanoTime();
+                ai.calBestColAndStat();
+                metrics.recordDecision(System.nanoTime() - start, ai.getCandidatesCount());
+                engine.drop();
+                lines += engine.lock();
+            }
+        } finally {
+            ai.stop();
+        }
+        return new GameResult(seed, engine.getPiecesCount(), lines, engine.getScore(), engine.isGameOver());
+    }
+
+    /**
+     * 在 threadsCount 个线程中进行 gamesCount 局，第i局的种子为 seed + i
+     */
+    public Report run(int gamesCount, long seed, int threadsCount) throws InterruptedException {
+        return run(gamesCount, seed, threadsCount, new GameMetrics());
+    }
+
+    /**
+     * @param metrics 所有对局共享，可以在运行时读取
+     */
+    public Report run(int gamesCount, long seed, int threadsCount, GameMetrics metrics) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threadsCount);
+        try {
+            metrics.reset();
+            List<Future<GameResult>> futures = new ArrayList<>(gamesCount);
+            for (int i = 0; i < gamesCount; i++) {
+                long gameSeed = seed + i;
+                futures.add(pool.submit(() -> play(gameSeed, metrics)));
+            }
+
+            List<GameResult> games = new ArrayList<>(gamesCount);
+            for (Future<GameResult> future : futures) {
+                try {
+                    games.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("game failed", e.getCause());
+                }
+            }
+            return new Report(games, metrics.snapshot());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int games = Integer.getInteger("sim.games", 100);
+        int threads = Integer.getInteger("sim.threads", Runtime.getRuntime().availableProcessors());
+        long seed = Long.getLong("sim.seed", 1);
+        int maxPieces = Integer.getInteger("sim.maxPieces", 10000);
+        int columns = Integer.getInteger("sim.columns", 10);
+        int rows = Integer.getInteger("sim.rows", 20);
+        PieceGenerator.Mode pieces = PieceGenerator.Mode.valueOf(System.getProperty("sim.pieces", "uniform").toUpperCase());
+
+        String aiName = System.getProperty("ai", "eltetris");
+        int depth = Integer.getInteger("ai.depth", AnytimeAI.DEFAULT_MAX_DEPTH);
+        // 每个 AI 用 -Dai.threads 个线程搜索
+        int aiThreads = Integer.getInteger("ai.threads", 1);
+        BiFunction<Board, Supplier<Block>, AI> factory;
+        if ("lookahead".equals(aiName))
+            factory = (board, nextBlock) -> new Lookahead(board, nextBlock, ElTetris.defaultEvaluator(),
+                    Lookahead.DEFAULT_BEAM_WIDTH, aiThreads);
+        else if ("anytime".equals(aiName)) // 没有截止时间，总是搜索 depth 层
+            factory = (board, nextBlock) -> new AnytimeAI(board, nextBlock, ElTetris.defaultEvaluator(),
+                    AnytimeAI.DEFAULT_BEAM_WIDTH, depth);
+        else if ("expectimax".equals(aiName))
+            factory = (board, nextBlock) -> new ExpectimaxAI(board, nextBlock, ElTetris.defaultEvaluator(),
+                    ExpectimaxAI.DEFAULT_BEAM_WIDTH, depth, null, aiThreads);
+        else
+            factory = (board, nextBlock) -> new ElTetris(board, aiThreads);
+        Function<GameEngine, AI> aiFactory = Boolean.getBoolean("ai.pipeline")
+                ? engine -> new PipelinedAI(engine.getBoard(), engine::getNextBlock, factory)
+                : engine -> factory.apply(engine.getBoard(), engine::getNextBlock);
+
+        System.out.printf("%d games on %dx%d, %d threads, %s pieces, seed %d, at most %d pieces per game%n",
+                games, columns, rows, threads, pieces, seed, maxPieces);
+        GameMetrics metrics = new GameMetrics();
+        metrics.register("simulator");
+        try {
+            Report report = new Simulator(columns, rows, aiFactory, maxPieces, pieces).run(games, seed, threads, metrics);
+            System.out.println(report);
+        } finally {
+            metrics.unregister();
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package io.github.kayodesu.sim;
+
+import io.github.kayodesu.ai.ElTetris;
+import io.github.kayodesu.ai.Evaluator;
+import io.github.kayodesu.block.PieceGenerator;
+import io.github.kayodesu.block.PieceSequence;
+import io.github.kayodesu.metrics.GameMetrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 用交叉熵方法调优评估函数的权重。
+ *
+ * 每一代从各权重独立的正态分布中抽取 populationSize 组权重，
+ * 每组权重进行 gamesCount 局游戏，以平均消除的行数为得分；
+ * 得分最高的 eliteCount 组权重的均值和标准差（再加上逐代减小的噪声）作为下一代的分布。
+ *
+ * 同一代的所有权重使用相同的出块序列，每一代开始时预先生成，所有线程只读共享，比较更公平。
+ * 所有 (权重, 局) 组合拆分成 fork/join 任务，由工作窃取的线程池执行。
+ * 每一代结束后把分布写入检查点文件，中断后再运行会从检查点继续；
+ * 目前最好的权重另存一个文件，可用 -Dai.weights=file 加载到 AI 中。
+ *
+ * 运行：java -cp target/classes io.github.kayodesu.sim.Tuner
+ * 参数用系统属性指定：
+ * -Dtune.generations=50 -Dtune.population=100 -Dtune.elite=10 -Dtune.games=10
+ * -Dtune.maxPieces=5000 -Dtune.columns=10 -Dtune.rows=20 -Dtune.seed=1 -Dtune.threads=核数
+ * -Dtune.pieces=uniform|seven_bag|history
+ * -Dtune.checkpoint=tuner.checkpoint -Dtune.best=best.weights
+ *
+ * @author Yo Ka
+ */
+public class Tuner {
+
+    private final Evaluator template; // 调优的特征，权重为初始的均值
+    private final int dimension;
+    private final int populationSize, eliteCount, gamesCount;
+    private final int columnsCount, rowsCount, maxPieces;
+    private final long seed;
+    private final PieceGenerator.Mode pieces;
+    private final ForkJoinPool pool;
+
+    // 当前的分布
+    private int generation = 0;
+    private double[] mean, stdDev;
+
+    // 目前得分最高的权重
+    private double[] best;
+    private double bestScore = Double.NEGATIVE_INFINITY;
+
+    // 每个任务最多进行的局数
+    private static final int TASK_GAMES_COUNT = 2;
+
+    private static final double INITIAL_STD_DEV = 10;
+
+    /**
+     * @param template 要调优的特征，其权重作为初始分布的均值
+     */
+    public Tuner(Evaluator template, int populationSize, int eliteCount, int gamesCount,
+                 int columnsCount, int rowsCount, int maxPieces, long seed, PieceGenerator.Mode pieces,
+                 int parallelism) {
+        if (eliteCount < 1 || eliteCount > populationSize)
+            throw new IllegalArgumentException("eliteCount = " + eliteCount);
+        if (gamesCount < 1)
+            throw new IllegalArgumentException("gamesCount = " + gamesCount);
+
+        this.template = template;
+        this.dimension = template.getFeaturesCount();
+        this.populationSize = populationSize;
+        this.eliteCount = eliteCount;
+        this.gamesCount = gamesCount;
+        this.columnsCount = columnsCount;
+        this.rowsCount = rowsCount;
+        this.maxPieces = maxPieces;
+        this.seed = seed;
+        this.pieces = pieces;
+        this.pool = new ForkJoinPool(parallelism);
+
+        mean = template.getWeights();
+        stdDev = new double[dimension];
+        Arrays.fill(stdDev, INITIAL_STD_DEV);
+        best = mean.clone();
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public double[] getBest() {
+        return best.clone();
+    }
+
+    public double getBestScore() {
+        return bestScore;
+    }
+
+    /**
+     * 第 generation 代加到标准差上的噪声，避免分布过早收缩
+     */
+    private static double noiseOf(int generation) {
+        return Math.max(5 - generation / 10.0, 0);
+    }
+
+    /**
+     * 与 template 的特征相同、权重为 weights 的评估函数
+     */
+    private Evaluator evaluatorOf(double[] weights) {
+        Evaluator evaluator = new Evaluator();
+        for (int i = 0; i < dimension; i++)
+            evaluator.add(template.getFeature(i), weights[i]);
+        return evaluator;
+    }
+
+    /**
+     * 进行 [from, to) 范围内的 (权重, 局)，第k个组合是第 k / gamesCount 组权重的第 k % gamesCount 局，
+     * 消除的行数写入 lines[k]
+     */
+    private class GameTask extends RecursiveAction {
+        private final Evaluator[] evaluators;
+        private final int[] lines;
+        private final PieceSequence[] sequences; // 每局的出块序列
+        private final int from, to;
+
+        GameTask(Evaluator[] evaluators, int[] lines, PieceSequence[] sequences, int from, int to) {
+            this.evaluators = evaluators;
+            this.lines = lines;
+            this.sequences = sequences;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TASK_GAMES_COUNT) {
+                GameMetrics metrics = new GameMetrics();
+                for (int k = from; k < to; k++) {
+                    int candidate = k / gamesCount, game = k % gamesCount;
+                    Evaluator evaluator = evaluators[candidate].copy(); // 评估函数的缓冲区不能共享
+                    Simulator simulator = new Simulator(columnsCount, rowsCount,
+                            engine -> new ElTetris(engine.getBoard(), evaluator, 1), maxPieces);
+                    lines[k] = simulator.play(game, sequences[game].cursor(), metrics).lines;
+                }
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new GameTask(evaluators, lines, sequences, from, mid),
+                    new GameTask(evaluators, lines, sequences, mid, to));
+        }
+    }
+
+    /**
+     * 进行一代
+     * @return 这一代最高的得分
+     */
+    public double step() {
+        Random random = new Random(seed * 31 + generation);
+        double[][] population = new double[populationSize][dimension];
+        Evaluator[] evaluators = new Evaluator[populationSize];
+        for (int i = 0; i < populationSize; i++) {
+            for (int j = 0; j < dimension; j++)
+                population[i][j] = mean[j] + stdDev[j] * random.nextGaussian();
+            evaluators[i] = evaluatorOf(population[i]);
+        }
+
+        // 每局最多用到 maxPieces 个小方块，再加上预览的一个
+        PieceSequence[] sequences = new PieceSequence[gamesCount];
+        long gamesSeed = seed + (long) generation * gamesCount;
+        for (int game = 0; game < gamesCount; game++)
+            sequences[game] = PieceSequence.generate(pieces.create(gamesSeed + game), maxPieces + 1);
+
+        int[] results = new int[populationSize * gamesCount];
+        pool.invoke(new GameTask(evaluators, results, sequences, 0, results.length));
+
+        long[] lines = new long[populationSize]; // 每组权重消除的总行数
+        for (int k = 0; k < results.length; k++)
+            lines[k / gamesCount] += results[k];
+
+        // 按得分从高到低排序，得分相同时取靠前的
+        Integer[] order = new Integer[populationSize];
+        for (int i = 0; i < populationSize; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(lines[b], lines[a]));
+
+        double[] newMean = new double[dimension];
+        double[] newStdDev = new double[dimension];
+        for (int j = 0; j < dimension; j++) {
+            double sum = 0;
+            for (int e = 0; e < eliteCount; e++)
+                sum += population[order[e]][j];
+            newMean[j] = sum / eliteCount;
+
+            double var = 0;
+            for (int e = 0; e < eliteCount; e++) {
+                double d = population[order[e]][j] - newMean[j];
+                var += d * d;
+            }
+            newStdDev[j] = Math.sqrt(var / eliteCount + noiseOf(generation));
+        }
+
+        double score = (double) lines[order[0]] / gamesCount;
+        if (score > bestScore) {
+            bestScore = score;
+            best = population[order[0]].clone();
+        }
+        mean = newMean;
+        stdDev = newStdDev;
+        generation++;
+        return score;
+    }
+
+    /* ---------------- 检查点 ---------------- */
+
+    private static String join(double[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+    private double[] split(String s) throws IOException {
+        if (s == null)
+            throw new IOException("incomplete checkpoint");
+        String[] parts = s.split(",");
+        if (parts.length != dimension)
+            throw new IOException("checkpoint has " + parts.length + " weights, expected " + dimension);
+        double[] values = new double[dimension];
+        for (int i = 0; i < dimension; i++)
+            values[i] = Double.parseDouble(parts[i].trim());
+        return values;
+    }
+
+    /**
+     * 写入检查点。先写临时文件再改名，中断时不会留下写了一半的检查点
+     */
+    public void saveCheckpoint(Path path) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("generation", Integer.toString(generation));
+        props.setProperty("seed", Long.toString(seed));
+        props.setProperty("mean", join(mean));
+        props.setProperty("stdDev", join(stdDev));
+        props.setProperty("best", join(best));
+        props.setProperty("bestScore", Double.toString(bestScore));
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            props.store(writer, "Tuner checkpoint");
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public void loadCheckpoint(Path path) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        if (Long.parseLong(props.getProperty("seed", "0")) != seed)
+            throw new IOException("checkpoint was made with seed " + props.getProperty("seed") + ", not " + seed);
+
+        generation = Integer.parseInt(props.getProperty("generation"));
+        mean = split(props.getProperty("mean"));
+        stdDev = split(props.getProperty("stdDev"));
+        best = split(props.getProperty("best"));
+        bestScore = Double.parseDouble(props.getProperty("bestScore"));
+    }
+
+    public void stop() {
+        pool.shutdownNow();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int generations = Integer.getInteger("tune.generations", 50);
+        int population = Integer.getInteger("tune.population", 100);
+        int elite = Integer.getInteger("tune.elite", 10);
+        int games = Integer.getInteger("tune.games", 10);
+        int maxPieces = Integer.getInteger("tune.maxPieces", 5000);
+        int columns = Integer.getInteger("tune.columns", 10);
+        int rows = Integer.getInteger("tune.rows", 20);
+        long seed = Long.getLong("tune.seed", 1);
+        int threads = Integer.getInteger("tune.threads", Runtime.getRuntime().availableProcessors());
+        PieceGenerator.Mode pieces = PieceGenerator.Mode.valueOf(System.getProperty("tune.pieces", "uniform").toUpperCase());
+        Path checkpoint = Paths.get(System.getProperty("tune.checkpoint", "tuner.checkpoint"));
+        Path bestFile = Paths.get(System.getProperty("tune.best", "best.weights"));
+
+        Evaluator template = ElTetris.defaultEvaluator();
+        Tuner tuner = new Tuner(template, population, elite, games, columns, rows, maxPieces, seed, pieces, threads);
+        if (Files.exists(checkpoint)) {
+            tuner.loadCheckpoint(checkpoint);
+            System.out.println("resume from generation " + tuner.getGeneration());
+        }
+
+        try {
+            while (tuner.getGeneration() < generations) {
+                long start = System.nanoTime();
+                double score = tuner.step();
+                tuner.saveCheckpoint(checkpoint);
+
+                Evaluator best = tuner.evaluatorOf(tuner.getBest());
+                best.save(bestFile);
+                System.out.printf("generation %d: best %.1f lines, best so far %.1f, %.1f s%n  %s%n",
+                        tuner.getGeneration(), score, tuner.getBestScore(),
+                        (System.nanoTime() - start) / 1e9, Arrays.toString(tuner.getBest()));
+            }
+        } finally {
+            tuner.stop();
+        }
+    }
+}
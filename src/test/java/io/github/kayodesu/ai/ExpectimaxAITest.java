@@ -0,0 +1,111 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.engine.Board;
+import io.github.kayodesu.engine.GameEngine;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Yo Ka
+ */
+class ExpectimaxAITest {
+
+    /**
+     * 用相同的出块序列同时进行几局，每一步所有 AI 选出的落点必须相同
+     * @return 比较的步数
+     */
+    @SafeVarargs
+    private static int playInLockstep(int rows, long seed, int pieces, Function<GameEngine, AI>... factories) {
+        GameEngine[] engines = new GameEngine[factories.length];
+        AI[] ais = new AI[factories.length];
+        for (int i = 0; i < factories.length; i++) {
+            engines[i] = new GameEngine(10, rows, seed);
+            ais[i] = factories[i].apply(engines[i]);
+            engines[i].start();
+        }
+
+        int steps = 0;
+        try {
+            while (!engines[0].isGameOver() && engines[0].getPiecesCount() < pieces) {
+                for (AI ai : ais)
+                    ai.calBestColAndStat();
+                Board expected = engines[0].getBoard();
+                for (int i = 1; i < engines.length; i++) {
+                    Board board = engines[i].getBoard();
+                    String message = "seed " + seed + " piece " + steps + " AI " + i;
+                    assertSame(expected.getDanglingBlock(), board.getDanglingBlock(), message);
+                    assertEquals(expected.blockLeft, board.blockLeft, message);
+                }
+                for (GameEngine engine : engines) {
+                    engine.drop();
+                    engine.lock();
+                }
+                steps++;
+            }
+        } finally {
+            for (AI ai : ais)
+                ai.stop();
+        }
+        return steps;
+    }
+
+    @Test
+    void pruningAndParallelismDoNotChangeTheResult() {
+        ExpectimaxAI[] pruned = new ExpectimaxAI[1];
+        for (long seed = 1; seed <= 2; seed++) {
+            int steps = playInLockstep(10, seed, 80,
+                    e -> pruned[0] = new ExpectimaxAI(e.getBoard(), e::getNextBlock, ElTetris.defaultEvaluator(),
+                            4, 3, null, 1),
+                    // 多一个没有最大值的特征，得分没有上界，不剪枝
+                    e -> new ExpectimaxAI(e.getBoard(), e::getNextBlock, ElTetris.defaultEvaluator().add(f -> 0, 1.0),
+                            4, 3, null, 1),
+                    e -> new ExpectimaxAI(e.getBoard(), e::getNextBlock, ElTetris.defaultEvaluator(),
+                            4, 3, null, 3));
+            assertEquals(80, steps);
+            assertTrue(pruned[0].getPrunedCount() > 0, "没有剪枝");
+        }
+    }
+
+    @Test
+    void depthOneIsElTetris() {
+        int steps = playInLockstep(20, 3, 300,
+                e -> new ElTetris(e.getBoard()),
+                e -> new ExpectimaxAI(e.getBoard(), e::getNextBlock, ElTetris.defaultEvaluator(),
+                        ExpectimaxAI.DEFAULT_BEAM_WIDTH, 1, null, 1));
+        assertEquals(300, steps);
+    }
+
+    @Test
+    void expiredDeadlineStillPlacesTheBlock() {
+        GameEngine engine = new GameEngine(10, 20, 4), reference = new GameEngine(10, 20, 4);
+        ExpectimaxAI ai = new ExpectimaxAI(engine.getBoard(), engine::getNextBlock);
+        ElTetris elTetris = new ElTetris(reference.getBoard());
+        engine.start();
+        reference.start();
+        try {
+            // 截止时间已过，也要选出与 ElTetris 相同的落点
+            elTetris.calBestColAndStat();
+            ai.calBestColAndStat(System.nanoTime() - 1);
+            assertEquals(1, ai.getCompletedDepth());
+            assertSame(reference.getBoard().getDanglingBlock(), engine.getBoard().getDanglingBlock());
+            assertEquals(reference.getBoard().blockLeft, engine.getBoard().blockLeft);
+
+            engine.drop();
+            engine.lock();
+            reference.drop();
+            reference.lock();
+            ai.stop();
+            elTetris.calBestColAndStat();
+            ai.calBestColAndStat();
+            assertEquals(1, ai.getCompletedDepth());
+            assertSame(reference.getBoard().getDanglingBlock(), engine.getBoard().getDanglingBlock());
+            assertEquals(reference.getBoard().blockLeft, engine.getBoard().blockLeft);
+        } finally {
+            ai.stop();
+            elTetris.stop();
+        }
+    }
+}
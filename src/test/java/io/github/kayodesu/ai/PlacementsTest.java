@@ -0,0 +1,69 @@
+package io.github.kayodesu.ai;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+import io.github.kayodesu.engine.Board;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Yo Ka
+ */
+class PlacementsTest {
+
+    /**
+     * 小方块放在第x列时占据的格子，与形态无关
+     */
+    private static String footprint(Block block, int x) {
+        StringBuilder sb = new StringBuilder().append(x + block.getLeft());
+        for (int y = block.getTop(); y <= block.getBottom(); y++)
+            sb.append(',').append(block.getRowMasks()[y] >>> block.getLeft());
+        return sb.toString();
+    }
+
+    @Test
+    void listsEveryFootprintOnce() {
+        for (int columns = 4; columns <= Board.MAX_COLUMNS_COUNT; columns++) {
+            Placements placements = Placements.of(columns);
+            for (int t = 0; t < BlockType.count(); t++) {
+                BlockType type = BlockType.valueOf(t);
+
+                // 逐个形态、逐列枚举所有不越界的位置
+                Set<String> expected = new HashSet<>();
+                for (int s = 0; s < type.getStatsCount(); s++) {
+                    Block block = type.getBlock(s);
+                    for (int x = -block.getLeft(); x + block.getRight() < columns; x++)
+                        expected.add(footprint(block, x));
+                }
+
+                for (int s = 0; s < type.getStatsCount(); s++) {
+                    Block first = type.getBlock(s);
+                    Block[] blocks = placements.blocksOf(first);
+                    int[] xs = placements.xsOf(first);
+                    assertEquals(blocks.length, xs.length);
+                    assertSame(first, blocks[0], "从给定的形态开始");
+                    assertEquals(-first.getLeft(), xs[0], "每个形态从最左边开始");
+
+                    Set<String> listed = new HashSet<>();
+                    for (int i = 0; i < blocks.length; i++) {
+                        assertSame(type, blocks[i].getType());
+                        assertTrue(xs[i] + blocks[i].getLeft() >= 0, "左边越界");
+                        assertTrue(xs[i] + blocks[i].getRight() < columns, "右边越界");
+                        assertTrue(listed.add(footprint(blocks[i], xs[i])), "重复的落点");
+                    }
+                    assertEquals(expected, listed, type + " 从形态 " + s + " 开始, " + columns + " 列");
+                }
+            }
+        }
+    }
+
+    @Test
+    void cachedPerColumnsCount() {
+        assertSame(Placements.of(10), Placements.of(10));
+        assertNotSame(Placements.of(10), Placements.of(11));
+    }
+}
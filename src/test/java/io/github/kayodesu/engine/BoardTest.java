@@ -0,0 +1,229 @@
+package io.github.kayodesu.engine;
+
+import io.github.kayodesu.block.Block;
+import io.github.kayodesu.block.BlockType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author Yo Ka
+ */
+class BoardTest {
+
+    /**
+     * 随机的面板，越往下越满，上面也会有悬空的格子
+     */
+    private static Board randomBoard(Random random) {
+        int columns = 4 + random.nextInt(12), rows = 4 + random.nextInt(20);
+        Board board = new Board(columns, rows);
+        double density = random.nextDouble();
+        for (int x = 0; x < columns; x++) {
+            for (int y = 0; y < rows; y++) {
+                if (random.nextDouble() < density * y / rows)
+                    board.fill(x, y);
+            }
+        }
+        return board;
+    }
+
+    private static Block randomBlock(Random random) {
+        BlockType type = BlockType.valueOf(random.nextInt(BlockType.count()));
+        return type.getBlock(random.nextInt(type.getStatsCount()));
+    }
+
+    @Test
+    void dropStopsWhereMovingDownStops() {
+        Random random = new Random(1);
+        int checked = 0, underOverhang = 0;
+        for (int i = 0; i < 2000; i++) {
+            Board board = randomBoard(random);
+            Block block = randomBlock(random);
+            for (int k = 0; k < 20; k++) {
+                int left = -block.getLeft() + random.nextInt(board.getColumnsCount() - block.getWidth() + 1);
+                int top = -Block.SIDE_LEN + random.nextInt(board.getRowsCount() + Block.SIDE_LEN);
+                if (board.setDanglingBlock(left, top, block) != Board.ConflictType.NONE_CONFLICT)
+                    continue;
+
+                // 逐行下移
+                while (board.moveDown())
+                    ;
+                int expected = board.blockTop;
+
+                board.setDanglingBlock(left, top, block);
+                if (board.dropRow(block, left) < top)
+                    underOverhang++; // 已经在某列最高的格子之下
+                assertEquals(expected, board.dropRow());
+                assertEquals(expected - top, board.drop());
+                assertEquals(expected, board.blockTop);
+                checked++;
+            }
+        }
+        assertTrue(checked > 10000);
+        assertTrue(underOverhang > 100, "没有覆盖从悬空的格子下面下落的情况");
+    }
+
+    @Test
+    void dropRowFromAboveUsesColumnHeights() {
+        Random random = new Random(2);
+        for (int i = 0; i < 2000; i++) {
+            Board board = randomBoard(random);
+            Block block = randomBlock(random);
+            for (int left = -block.getLeft(); left + block.getRight() < board.getColumnsCount(); left++) {
+                // 从面板上方逐行下移，直到碰到格子或底部
+                int expected = -Block.SIDE_LEN;
+                while (board.testBoundAndConflict(left, expected + 1, block) == Board.ConflictType.NONE_CONFLICT)
+                    expected++;
+                assertEquals(expected, board.dropRow(block, left));
+                assertEquals(expected, board.dropRow(block.getType(), block.getStat(), left));
+            }
+        }
+    }
+
+    /**
+     * 已固定的格子和增量维护的统计
+     */
+    private static String cells(Board board) {
+        StringBuilder sb = new StringBuilder();
+        for (int y = 0; y < board.getRowsCount(); y++)
+            sb.append(board.getRow(y)).append(',');
+        for (int x = 0; x < board.getColumnsCount(); x++)
+            sb.append(board.getHeight(x)).append(',');
+        return sb.append(board.getAggregateHeight()).append(',').append(board.getHoles())
+                .append(',').append(board.getRowTransitions()).append(',').append(board.getColumnTransitions())
+                .append(',').append(board.getWellSums()).append(',').append(board.getFullRowsCount())
+                .append(',').append(board.getHash()).toString();
+    }
+
+    /**
+     * 撤销要还原的全部状态
+     */
+    private static String snapshot(Board board) {
+        return cells(board) + ',' + board.isFull() + ',' + board.getDanglingBlock()
+                + ',' + board.blockLeft + ',' + board.blockTop;
+    }
+
+    /**
+     * 逐格 fill 重新建一个面板，统计全部重新计算
+     */
+    private static Board rebuild(Board board) {
+        Board rebuilt = new Board(board.getColumnsCount(), board.getRowsCount());
+        for (int y = 0; y < board.getRowsCount(); y++) {
+            for (int x = 0; x < board.getColumnsCount(); x++) {
+                if (board.isFilled(x, y))
+                    rebuilt.fill(x, y);
+            }
+        }
+        return rebuilt;
+    }
+
+    @Test
+    void undoMergeRestoresNestedMerges() {
+        Random random = new Random(3);
+        int undone = 0, cleared = 0;
+        for (int game = 0; game < 300; game++) {
+            Board board = new Board(10, 20);
+            switch (random.nextInt(3)) {
+                case 1: // 零散的格子，有洞
+                    for (int k = 0; k < 30; k++)
+                        board.fill(random.nextInt(10), 8 + random.nextInt(12));
+                    break;
+                case 2: // 只差一格的行，容易消行；偶尔有 fill 出来的满行
+                    for (int y = 19, n = random.nextInt(18); y > 19 - n; y--) {
+                        int hole = random.nextInt(10);
+                        for (int x = 0; x < 10; x++) {
+                            if (x != hole || random.nextInt(20) == 0)
+                                board.fill(x, y);
+                        }
+                    }
+                    break;
+            }
+            assertEquals(0, board.getUndoDepth());
+
+            Deque<String> saved = new ArrayDeque<>();
+            for (int step = 0; step < 200; step++) {
+                if (!saved.isEmpty() && (random.nextInt(3) == 0 || saved.size() > 6)) {
+                    board.undoMerge();
+                    assertEquals(saved.pop(), snapshot(board), "game " + game + " step " + step);
+                    undone++;
+                    continue;
+                }
+
+                Block block = randomBlock(random);
+                int left = -block.getLeft() + random.nextInt(10 - block.getWidth() + 1);
+                int top = board.dropRow(block, left);
+                if (board.setDanglingBlock(left, top, block) != Board.ConflictType.NONE_CONFLICT)
+                    continue;
+                saved.push(snapshot(board));
+                cleared += board.mergeUndoable();
+                assertEquals(saved.size(), board.getUndoDepth());
+                if (step % 10 == 0 && !board.isFull())
+                    assertEquals(cells(rebuild(board)), cells(board), "增量维护的统计与重新计算的不同");
+                if (board.isFull()) {
+                    board.undoMerge();
+                    assertEquals(saved.pop(), snapshot(board));
+                }
+            }
+            while (!saved.isEmpty()) {
+                board.undoMerge();
+                assertEquals(saved.pop(), snapshot(board));
+                undone++;
+            }
+            assertEquals(0, board.getUndoDepth());
+        }
+        assertTrue(undone > 10000);
+        assertTrue(cleared > 100, "没有覆盖消行");
+    }
+
+    @Test
+    void copyFillAndClearResetUndoStack() {
+        Board board = new Board(10, 20);
+        Block block = BlockType.valueOf(0).getBlock(0);
+        board.setDanglingBlock(-block.getLeft(), board.dropRow(block, -block.getLeft()), block);
+        board.mergeUndoable();
+        assertEquals(1, board.getUndoDepth());
+        board.fill(9, 19);
+        assertEquals(0, board.getUndoDepth());
+
+        board.setDanglingBlock(-block.getLeft(), board.dropRow(block, -block.getLeft()), block);
+        board.mergeUndoable();
+        board.copyFrom(new Board(10, 20));
+        assertEquals(0, board.getUndoDepth());
+
+        board.setDanglingBlock(-block.getLeft(), board.dropRow(block, -block.getLeft()), block);
+        board.mergeUndoable();
+        board.clear();
+        assertEquals(0, board.getUndoDepth());
+    }
+
+    @Test
+    void mergeClearsMoreThanFourFilledRows() {
+        Board board = new Board(10, 20);
+        for (int y = 14; y < 20; y++) {
+            for (int x = 0; x < 10; x++)
+                board.fill(x, y);
+        }
+        Block block = BlockType.valueOf(0).getBlock(0);
+        board.setDanglingBlock(-block.getLeft(), board.dropRow(block, -block.getLeft()), block);
+        Board expected = new Board(10, 20);
+        expected.copyFrom(board);
+        expected.setDanglingBlock(board.blockLeft, board.blockTop, block);
+        String before = snapshot(board);
+
+        // fill 出来的6个满行与小方块一起消除
+        assertEquals(6, board.mergeUndoable());
+        int[] cleared = board.getClearedRows();
+        for (int k = 0; k < 6; k++)
+            assertEquals(19 - k, cleared[k]);
+        assertEquals(cells(rebuild(board)), cells(board));
+        board.undoMerge();
+        assertEquals(before, snapshot(board));
+
+        assertEquals(6, expected.merge());
+        assertEquals(cells(rebuild(expected)), cells(expected));
+    }
+}